@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa.compiler;
+
+import com.github.x3333.dagger.jpa.impl.JpaServiceImpl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.google.auto.service.AutoService;
+
+/**
+ * Collects {@code @Entity}, {@code @Embeddable} and {@code @Converter} classes and writes them to
+ * {@link JpaServiceImpl#MANAGED_CLASSES_INDEX}, one binary class name per line. {@link JpaServiceImpl} uses this index to hand the managed
+ * classes to the persistence provider, so it doesn't need to scan the classpath.
+ *
+ * <p>
+ * Incremental builds only compile the changed sources, so the index already in the output is merged: its classes are kept as long as they
+ * still exist and are still annotated.
+ *
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+@AutoService(Processor.class)
+@SupportedAnnotationTypes({"javax.persistence.Entity", "javax.persistence.Embeddable", "javax.persistence.Converter"})
+public class PersistenceIndexProcessor extends AbstractProcessor {
+
+  private final Set<String> managedClasses = new TreeSet<>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+    for (final TypeElement annotation : annotations) {
+      for (final Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+        if (element.getKind().isClass()) {
+          managedClasses.add(processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString());
+        }
+      }
+    }
+
+    if (roundEnv.processingOver() && !managedClasses.isEmpty()) {
+      writeIndex();
+    }
+
+    // Other processors may be interested in these annotations too
+    return false;
+  }
+
+  //
+
+  private void writeIndex() {
+    final Set<String> index = new TreeSet<>(managedClasses);
+    readPreviousIndex(index);
+
+    try {
+      final FileObject file =
+          processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", JpaServiceImpl.MANAGED_CLASSES_INDEX);
+      try (Writer writer = file.openWriter()) {
+        for (final String managedClass : index) {
+          writer.write(managedClass);
+          writer.write('\n');
+        }
+      }
+    } catch (final IOException e) {
+      processingEnv.getMessager().printMessage(Kind.ERROR, "Could not write persistence index: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Add the still managed classes of the index written by a previous compilation to the same output, if any.
+   */
+  private void readPreviousIndex(final Set<String> index) {
+    try {
+      final FileObject file =
+          processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", JpaServiceImpl.MANAGED_CLASSES_INDEX);
+      try (BufferedReader reader = new BufferedReader(file.openReader(true))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          line = line.trim();
+          if (!line.isEmpty() && isManagedClass(line)) {
+            index.add(line);
+          }
+        }
+      }
+    } catch (final IOException e) {
+      // No previous index
+    }
+  }
+
+  private boolean isManagedClass(final String binaryName) {
+    final Elements elements = processingEnv.getElementUtils();
+    // Nested classes are found by their canonical name, the binary name check rules out a '$' in the class name itself
+    final TypeElement type = elements.getTypeElement(binaryName.replace('$', '.'));
+    if (type == null || !elements.getBinaryName(type).contentEquals(binaryName)) {
+      return false;
+    }
+    for (final AnnotationMirror annotation : type.getAnnotationMirrors()) {
+      final TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+      if (getSupportedAnnotationTypes().contains(annotationType.getQualifiedName().toString())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
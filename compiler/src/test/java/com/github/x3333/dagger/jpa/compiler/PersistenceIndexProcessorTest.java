@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa.compiler;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.assertTrue;
+
+import com.github.x3333.dagger.jpa.impl.JpaServiceImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteSource;
+import com.google.testing.compile.JavaFileObjects;
+
+public class PersistenceIndexProcessorTest {
+
+  private static final JavaFileObject ENTITY = JavaFileObjects.forSourceLines("test.SomeEntity", //
+      "package test;", //
+      "", //
+      "import javax.persistence.Embeddable;", //
+      "import javax.persistence.Entity;", //
+      "", //
+      "@Entity", //
+      "public class SomeEntity {", //
+      "", //
+      "  @Embeddable", //
+      "  public static class Key {}", //
+      "", //
+      "}");
+
+  private static final JavaFileObject CONVERTER = JavaFileObjects.forSourceLines("test.SomeConverter", //
+      "package test;", //
+      "", //
+      "import javax.persistence.AttributeConverter;", //
+      "import javax.persistence.Converter;", //
+      "", //
+      "@Converter", //
+      "public class SomeConverter implements AttributeConverter<Boolean, String> {", //
+      "", //
+      "  public String convertToDatabaseColumn(Boolean value) {", //
+      "    return value ? \"Y\" : \"N\";", //
+      "  }", //
+      "", //
+      "  public Boolean convertToEntityAttribute(String value) {", //
+      "    return \"Y\".equals(value);", //
+      "  }", //
+      "", //
+      "}");
+
+  private static final JavaFileObject NOT_PERSISTENT = JavaFileObjects.forSourceLines("test.NotPersistent", //
+      "package test;", //
+      "", //
+      "public class NotPersistent {}");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void indexManagedClasses() {
+    assertAbout(javaSources()).that(Arrays.asList(ENTITY, CONVERTER, NOT_PERSISTENT))
+        .processedWith(new PersistenceIndexProcessor())
+        .compilesWithoutError()
+        .and()
+        .generatesFileNamed(StandardLocation.CLASS_OUTPUT, "", JpaServiceImpl.MANAGED_CLASSES_INDEX)
+        .withContents(index("test.SomeConverter", "test.SomeEntity", "test.SomeEntity$Key"));
+  }
+
+  @Test
+  public void mergePreviousIndex() throws IOException {
+    final File output = folder.newFolder("classes");
+    compile(output, ENTITY);
+
+    // Incremental compilation of other classes keeps the previous ones
+    compile(output, CONVERTER, NOT_PERSISTENT);
+    assertThat(readIndex(output)).containsExactly("test.SomeConverter", "test.SomeEntity", "test.SomeEntity$Key").inOrder();
+
+    // Classes no longer annotated are removed
+    compile(output, JavaFileObjects.forSourceLines("test.SomeConverter", //
+        "package test;", //
+        "", //
+        "import javax.persistence.Embeddable;", //
+        "", //
+        "@Embeddable", //
+        "public class SomeConverter {}"), //
+        JavaFileObjects.forSourceLines("test.SomeEntity", //
+            "package test;", //
+            "", //
+            "public class SomeEntity {", //
+            "", //
+            "  public static class Key {}", //
+            "", //
+            "}"));
+    assertThat(readIndex(output)).containsExactly("test.SomeConverter");
+  }
+
+  //
+
+  private static ByteSource index(final String... classNames) {
+    final StringBuilder sb = new StringBuilder();
+    for (final String className : classNames) {
+      sb.append(className).append('\n');
+    }
+    return ByteSource.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void compile(final File output, final JavaFileObject... sources) {
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    final List<String> options = Arrays.asList("-d", output.getPath(), "-classpath",
+        output.getPath() + File.pathSeparator + System.getProperty("java.class.path"));
+    final JavaCompiler.CompilationTask task = compiler.getTask(null, null, null, options, null, Arrays.asList(sources));
+    task.setProcessors(Arrays.asList(new PersistenceIndexProcessor()));
+    assertTrue("Compilation failed", task.call());
+  }
+
+  private static List<String> readIndex(final File output) throws IOException {
+    return Files.readAllLines(new File(output, JpaServiceImpl.MANAGED_CLASSES_INDEX).toPath(), StandardCharsets.UTF_8);
+  }
+
+}
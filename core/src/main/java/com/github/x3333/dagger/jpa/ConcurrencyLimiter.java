@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit of concurrent transactions, AIMD style. The limit is adjusted once per window of about limit completed transactions: it
+ * decreases by 10% if the limit has been reached during the window and even its fastest transaction is above the target latency,
+ * otherwise it increases by one. The limit stays between the configured minimum and maximum, the maximum usually being the connection
+ * pool size.
+ *
+ * <p>
+ * The fastest transaction is used as a group usually mixes fast and slow methods: a slow method only delays itself, while a congested
+ * database delays them all. If no target latency is configured, it is twice the lowest latency observed, which slowly follows the fastest
+ * transactions of each window so it adapts if the database gets slower for good.
+ *
+ * <p>
+ * Waiting threads are served in arrival order, a freed slot is handed to the oldest one. Threads arriving while others wait queue
+ * behind them, even if a slot is free.
+ *
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+public final class ConcurrencyLimiter {
+
+  private static final double BACKOFF = 0.9;
+  private static final double BASELINE_WEIGHT = 0.01;
+
+  private final String name;
+  private final int minLimit;
+  private final int maxLimit;
+  private final long timeoutNanos;
+  private final int maxWaiting;
+  private final long targetLatencyNanos;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Deque<Waiter> waiters = new ArrayDeque<>();
+  private double limit;
+  private int inFlight;
+  private long baselineNanos;
+  private int windowCompleted;
+  private long windowFastestNanos = Long.MAX_VALUE;
+  private boolean windowSaturated;
+
+  //
+
+  ConcurrencyLimiter(final String name, final int minLimit, final int maxLimit, final long timeoutMillis, final int maxWaiting,
+      final long targetLatencyMillis) {
+    this.name = name;
+    this.minLimit = Math.max(1, Math.min(minLimit, maxLimit));
+    this.maxLimit = maxLimit;
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    this.maxWaiting = maxWaiting;
+    this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+    this.limit = maxLimit;
+  }
+
+  //
+
+  /**
+   * Wait for a slot.
+   *
+   * @return Start time, to be given to {@link #release(long)}.
+   * @throws TransactionRejectedException If too many threads are waiting, or no slot got free before the timeout.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  long acquire() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      // Don't overtake threads already waiting
+      if (waiters.isEmpty() && inFlight < (int) limit) {
+        inFlight++;
+        return System.nanoTime();
+      }
+      if (maxWaiting >= 0 && waiters.size() >= maxWaiting) {
+        throw new TransactionRejectedException("Transaction limit of " + name + " reached, " + waiters.size() + " already waiting");
+      }
+
+      final Waiter waiter = new Waiter(lock.newCondition());
+      waiters.addLast(waiter);
+      try {
+        long nanos = timeoutNanos;
+        while (!waiter.granted) {
+          if (nanos <= 0) {
+            waiters.remove(waiter);
+            throw new TransactionRejectedException("Transaction limit of " + name + " reached, timeout waiting for a slot");
+          }
+          nanos = waiter.condition.awaitNanos(nanos);
+        }
+      } catch (final InterruptedException e) {
+        if (waiter.granted) {
+          // Pass the slot granted to this thread on
+          inFlight--;
+          grant();
+        } else {
+          waiters.remove(waiter);
+        }
+        throw e;
+      }
+      return System.nanoTime();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Free a slot and adjust the limit using the transaction latency.
+   *
+   * @param start Value returned by {@link #acquire()}.
+   */
+  void release(final long start) {
+    final long latency = System.nanoTime() - start;
+    lock.lock();
+    try {
+      windowSaturated |= inFlight >= (int) limit;
+      inFlight--;
+
+      windowFastestNanos = Math.min(windowFastestNanos, latency);
+      if (++windowCompleted >= (int) limit) {
+        adjustLimit();
+      }
+
+      grant();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Adjust the limit at the end of a window, and start the next one.
+   */
+  private void adjustLimit() {
+    final long fastest = windowFastestNanos;
+    final double target = targetLatencyNanos > 0 ? targetLatencyNanos : 2.0 * baselineNanos;
+    if (windowSaturated && target > 0 && fastest > target) {
+      limit = Math.max(minLimit, limit * BACKOFF);
+    } else {
+      limit = Math.min(maxLimit, limit + 1);
+    }
+
+    if (baselineNanos == 0 || fastest < baselineNanos) {
+      baselineNanos = fastest;
+    } else {
+      baselineNanos += (long) (BASELINE_WEIGHT * (fastest - baselineNanos));
+    }
+
+    windowCompleted = 0;
+    windowFastestNanos = Long.MAX_VALUE;
+    windowSaturated = false;
+  }
+
+  /**
+   * Hand the free slots to the oldest waiters. The slot is taken on their behalf, so a thread arriving meanwhile can't take it.
+   */
+  private void grant() {
+    while (inFlight < (int) limit && !waiters.isEmpty()) {
+      final Waiter waiter = waiters.removeFirst();
+      waiter.granted = true;
+      inFlight++;
+      waiter.condition.signal();
+    }
+  }
+
+  //
+
+  /**
+   * @return Group name.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return Current limit of concurrent transactions.
+   */
+  public int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return Transactions currently running.
+   */
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return Threads waiting for a slot.
+   */
+  public int getWaiting() {
+    lock.lock();
+    try {
+      return waiters.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //
+
+  private static final class Waiter {
+
+    final Condition condition;
+    boolean granted;
+
+    Waiter(final Condition condition) {
+      this.condition = condition;
+    }
+
+  }
+
+}
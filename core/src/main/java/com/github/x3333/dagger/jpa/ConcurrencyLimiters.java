@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa;
+
+import static java.lang.Boolean.TRUE;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * The {@link ConcurrencyLimiter ConcurrencyLimiters} of the persistence unit, one per {@link Transactional#limiterGroup()}. Only used if
+ * {@link JpaProperties#LIMITER} is enabled.
+ *
+ * <p>
+ * Limiter settings are read from {@code dagger.jpa.limiter.<setting>}, and can be overridden per group with
+ * {@code dagger.jpa.limiter.<group>.<setting>}.
+ *
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+@Singleton
+public final class ConcurrencyLimiters {
+
+  private static final String PREFIX = "dagger.jpa.limiter.";
+
+  // Pool size settings of the providers and pools supported by Hibernate
+  private static final String[] POOL_SIZE_PROPERTIES = {//
+      "hibernate.hikari.maximumPoolSize", //
+      "hibernate.c3p0.max_size", //
+      "hibernate.connection.pool_size"};
+
+  private final Map<?, ?> persistenceProperties;
+  private final boolean enabled;
+  private final ConcurrentMap<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+  // Shared by every interceptor of the unit, each intercepted class has its own
+  private final ThreadLocal<Boolean> holdsSlot = new ThreadLocal<>();
+
+  //
+
+  @Inject
+  public ConcurrencyLimiters(@Nullable @Named("jpa.properties") final Map<?, ?> persistenceProperties) {
+    this.persistenceProperties = persistenceProperties;
+    this.enabled = JpaProperties.getBoolean(persistenceProperties, JpaProperties.LIMITER, false);
+  }
+
+  //
+
+  /**
+   * Get the limiter of a group.
+   *
+   * @param group Group name, empty for the default group.
+   * @return The group limiter, null if limiting is disabled.
+   */
+  @Nullable
+  public ConcurrencyLimiter get(final String group) {
+    if (!enabled) {
+      return null;
+    }
+    return limiters.computeIfAbsent(group, this::create);
+  }
+
+  /**
+   * Check if the current thread holds a slot of any limiter, so the transactions it starts from callbacks don't wait for another one.
+   */
+  boolean holdsSlot() {
+    return TRUE.equals(holdsSlot.get());
+  }
+
+  void setHoldsSlot(final boolean holds) {
+    if (holds) {
+      holdsSlot.set(true);
+    } else {
+      holdsSlot.remove();
+    }
+  }
+
+  //
+
+  private ConcurrencyLimiter create(final String group) {
+    final int maxConcurrency = getInt(group, "maxConcurrency", poolSize());
+    if (maxConcurrency <= 0) {
+      throw new IllegalStateException("Transaction limiter enabled, but no " + PREFIX + "maxConcurrency set "
+          + "and the connection pool size is unknown");
+    }
+
+    return new ConcurrencyLimiter(//
+        group.isEmpty() ? "default group" : "group " + group, //
+        getInt(group, "minConcurrency", 1), //
+        maxConcurrency, //
+        getInt(group, "timeout", 1000), //
+        getInt(group, "maxWaiting", -1), //
+        getInt(group, "targetLatency", 0));
+  }
+
+  private int getInt(final String group, final String setting, final int defaultValue) {
+    final int value = JpaProperties.getInt(persistenceProperties, PREFIX + setting, defaultValue);
+    return group.isEmpty() ? value : JpaProperties.getInt(persistenceProperties, PREFIX + group + "." + setting, value);
+  }
+
+  private int poolSize() {
+    for (final String property : POOL_SIZE_PROPERTIES) {
+      final int size = JpaProperties.getInt(persistenceProperties, property, 0);
+      if (size > 0) {
+        return size;
+      }
+    }
+    return 0;
+  }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * JDBC work executed by {@link JpaWork#doWork(ConnectionCallback)} with the connection of the current {@code EntityManager}.
+ * 
+ * @param <T> Result type.
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+@FunctionalInterface
+public interface ConnectionCallback<T> {
+
+  /**
+   * Do the JDBC work. The connection must not be closed, committed or rolled back, it is managed by the persistence provider.
+   * 
+   * @param connection Connection of the current {@code EntityManager}.
+   * @return Work result, may be null.
+   * @throws SQLException In case of a JDBC error, it is converted to a {@code PersistenceException}.
+   */
+  T doInConnection(Connection connection) throws SQLException;
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Entity graph used as {@code javax.persistence.loadgraph} hint while a {@link Transactional @Transactional} method runs, see
+ * {@link Transactional#fetchPlan()}.
+ * 
+ * <p>
+ * The hint is added to finds of {@link #entity()} and to JPQL or criteria typed queries whose result type is {@link #entity()}, executed
+ * through the {@code EntityManager} provided by {@link JpaWork}, unless they already have a graph hint. Native queries are left untouched.
+ * The graph is either the named entity graph {@link #graph()}, or a graph built from {@link #attributes()}. Graphs are built once and
+ * cached.
+ * 
+ * <pre>
+ * &#64;Transactional(fetchPlan = &#64;FetchPlan(entity = Order.class, attributes = { "customer", "lines.product" }))
+ * </pre>
+ * 
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+@Documented
+@Retention(RUNTIME)
+@Target({})
+public @interface FetchPlan {
+
+  /**
+   * Root entity of the graph. {@code void.class} means no fetch plan.
+   * 
+   * @return Root entity.
+   */
+  Class<?> entity();
+
+  /**
+   * Attributes to load eagerly. Attributes of related entities are given as paths, like {@code "lines.product"}. Ignored if
+   * {@link #graph()} is set.
+   * 
+   * @return Attributes to load.
+   */
+  String[] attributes() default {};
+
+  /**
+   * Name of a named entity graph of {@link #entity()}.
+   * 
+   * @return Entity graph name. By default none, the graph is built from {@link #attributes()}.
+   */
+  String graph() default "";
+
+}
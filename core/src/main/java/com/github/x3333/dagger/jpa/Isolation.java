@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa;
+
+import java.sql.Connection;
+
+/**
+ * Transaction isolation level of a {@link Transactional @Transactional} method, see {@link Transactional#isolation()}.
+ * 
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+public enum Isolation {
+
+  /**
+   * Keep the isolation level of the connection.
+   */
+  DEFAULT(-1),
+
+  /**
+   * {@link Connection#TRANSACTION_READ_UNCOMMITTED}.
+   */
+  READ_UNCOMMITTED(Connection.TRANSACTION_READ_UNCOMMITTED),
+
+  /**
+   * {@link Connection#TRANSACTION_READ_COMMITTED}.
+   */
+  READ_COMMITTED(Connection.TRANSACTION_READ_COMMITTED),
+
+  /**
+   * {@link Connection#TRANSACTION_REPEATABLE_READ}.
+   */
+  REPEATABLE_READ(Connection.TRANSACTION_REPEATABLE_READ),
+
+  /**
+   * {@link Connection#TRANSACTION_SERIALIZABLE}.
+   */
+  SERIALIZABLE(Connection.TRANSACTION_SERIALIZABLE);
+
+  private final int level;
+
+  Isolation(final int level) {
+    this.level = level;
+  }
+
+  /**
+   * @return JDBC isolation level, -1 for {@link #DEFAULT}.
+   */
+  public int level() {
+    return level;
+  }
+
+}
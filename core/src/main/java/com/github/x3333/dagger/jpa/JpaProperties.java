@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa;
+
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Configuration keys understood by dagger-jpa. They are read from the {@code jpa.properties} map, the same one passed to the persistence
+ * provider, which ignores unknown keys.
+ *
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+public final class JpaProperties {
+
+  /**
+   * Maximum number of idle {@link javax.persistence.EntityManager EntityManagers} kept for reuse between units of work. An EntityManager
+   * is not kept if the work failed, set a property on it, or used {@code unwrap()} or {@code getDelegate()}. Defaults to 0, recycling
+   * disabled.
+   */
+  public static final String RECYCLE_POOL_SIZE = "dagger.jpa.recycle.poolSize";
+
+  /**
+   * Enable {@link WorkStatistics} and the {@link StatementReport}. The {@link javax.persistence.EntityManager EntityManager} handed out is
+   * wrapped to count queries and entity loads. Defaults to false.
+   */
+  public static final String STATISTICS = "dagger.jpa.statistics";
+
+  /**
+   * Throw a {@link StatementBudgetExceededException} when a method exceeds its {@link Transactional#maxStatements()}, instead of just
+   * logging it. Meant for tests. Defaults to false.
+   */
+  public static final String STATISTICS_FAIL_ON_BUDGET = "dagger.jpa.statistics.failOnBudget";
+
+  /**
+   * Number of times the same statement may be repeated in a transaction before it is logged as a possible N+1 loading pattern. Defaults
+   * to 10, 0 disables the detection.
+   */
+  public static final String STATISTICS_REPETITION_THRESHOLD = "dagger.jpa.statistics.repetitionThreshold";
+
+  /**
+   * SQL statements are reported to {@link WorkStatistics} by a provider hook, so budgets count them instead of queries and entity loads.
+   * Defaults to false.
+   */
+  public static final String STATISTICS_PROVIDER_STATEMENTS = "dagger.jpa.statistics.providerStatements";
+
+  /**
+   * Pass the classes listed in the index generated by dagger-jpa-compiler to the persistence provider, so it doesn't need to scan the
+   * classpath for them. Defaults to false.
+   */
+  public static final String INDEX = "dagger.jpa.index";
+
+  /**
+   * Provider property that receives the indexed classes, as a {@code List<Class<?>>}. Defaults to Hibernate
+   * {@code hibernate.ejb.loaded.classes}.
+   */
+  public static final String INDEX_PROPERTY = "dagger.jpa.index.property";
+
+  /**
+   * Number of threads running asynchronous transaction callbacks. Defaults to 1.
+   */
+  public static final String CALLBACK_THREADS = "dagger.jpa.callbacks.threads";
+
+  /**
+   * Maximum number of asynchronous transaction callbacks waiting for a thread. When full, callbacks run in the thread completing the
+   * transaction. Defaults to 1024.
+   */
+  public static final String CALLBACK_QUEUE_SIZE = "dagger.jpa.callbacks.queueSize";
+
+  /**
+   * Limit the concurrent outermost transactions with a {@link ConcurrencyLimiter} per {@link Transactional#limiterGroup()}. Defaults to
+   * false. Limiters are configured with:
+   *
+   * <ul>
+   * <li>{@code dagger.jpa.limiter.maxConcurrency}: maximum limit, defaults to the connection pool size if found in the properties
+   * ({@code hibernate.hikari.maximumPoolSize}, {@code hibernate.c3p0.max_size} or {@code hibernate.connection.pool_size});</li>
+   * <li>{@code dagger.jpa.limiter.minConcurrency}: minimum limit, defaults to 1;</li>
+   * <li>{@code dagger.jpa.limiter.timeout}: milliseconds to wait for a slot, 0 to fail fast, defaults to 1000;</li>
+   * <li>{@code dagger.jpa.limiter.maxWaiting}: threads allowed to wait, others fail fast, defaults to -1, unbounded;</li>
+   * <li>{@code dagger.jpa.limiter.targetLatency}: latency in milliseconds the fastest transaction of a window must exceed for the limit to
+   * decrease, defaults to 0, twice the lowest latency observed.</li>
+   * </ul>
+   *
+   * Each setting can be overridden per group, e.g. {@code dagger.jpa.limiter.reports.maxConcurrency}.
+   */
+  public static final String LIMITER = "dagger.jpa.limiter";
+
+  //
+
+  private JpaProperties() {}
+
+  //
+
+  /**
+   * Read a boolean property.
+   *
+   * @param properties Properties map, may be null.
+   * @param key Property key.
+   * @param defaultValue Value returned if the property is not present.
+   * @return The property value as a boolean.
+   */
+  public static boolean getBoolean(@Nullable final Map<?, ?> properties, final String key, final boolean defaultValue) {
+    final Object value = properties == null ? null : properties.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    return Boolean.parseBoolean(value.toString().trim());
+  }
+
+  /**
+   * Read a string property.
+   *
+   * @param properties Properties map, may be null.
+   * @param key Property key.
+   * @param defaultValue Value returned if the property is not present.
+   * @return The property value as a string.
+   */
+  public static String getString(@Nullable final Map<?, ?> properties, final String key, final String defaultValue) {
+    final Object value = properties == null ? null : properties.get(key);
+    return value == null ? defaultValue : value.toString();
+  }
+
+  /**
+   * Read an integer property.
+   *
+   * @param properties Properties map, may be null.
+   * @param key Property key.
+   * @param defaultValue Value returned if the property is not present.
+   * @return The property value as an int.
+   */
+  public static int getInt(@Nullable final Map<?, ?> properties, final String key, final int defaultValue) {
+    final Object value = properties == null ? null : properties.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).intValue();
+    }
+    try {
+      return Integer.parseInt(value.toString().trim());
+    } catch (final NumberFormatException e) {
+      throw new IllegalArgumentException("Property " + key + " must be an integer, found: " + value, e);
+    }
+  }
+
+}
@@ -13,6 +13,12 @@
 
 package com.github.x3333.dagger.jpa;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
 import javax.persistence.EntityManager;
 
 /**
@@ -27,6 +33,12 @@ import javax.persistence.EntityManager;
  * Operations will always be binded to the local thread. Beginning/ending corresponds to opening and closing the thread's
  * {@code EntityManager}. Always {@link #end()} in a <code>finally</code> block.
  * 
+ * <p>
+ * If {@link JpaProperties#RECYCLE_POOL_SIZE} is set, ending returns a cleared {@code EntityManager} to a bounded pool instead of closing it,
+ * and the next {@link #begin()} reuses it. An {@code EntityManager} whose properties have been set, or whose provider API has been reached
+ * through {@link EntityManager#unwrap(Class)} or {@link EntityManager#getDelegate()}, is closed instead, as clearing doesn't revert such
+ * state. So is one that threw a {@link javax.persistence.PersistenceException PersistenceException}, even if the caller handled it.
+ * 
  * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
  */
 public interface JpaWork {
@@ -48,6 +60,129 @@ public interface JpaWork {
    */
   void end();
 
+  /**
+   * Run JDBC work with the connection of the current EntityManager, flushing pending changes first. Inside a transaction, the work is
+   * committed or rolled back with it.
+   * 
+   * @param callback JDBC work.
+   * @param <T> Result type.
+   * @return The callback result.
+   * @see #doWork(boolean, ConnectionCallback)
+   */
+  <T> T doWork(ConnectionCallback<T> callback);
+
+  /**
+   * Run JDBC work with the connection of the current EntityManager. Inside a transaction, the work is committed or rolled back with it.
+   * 
+   * @param flush If pending changes should be flushed before the work, so it sees them. Only done if a transaction is active.
+   * @param callback JDBC work.
+   * @param <T> Result type.
+   * @return The callback result.
+   */
+  <T> T doWork(boolean flush, ConnectionCallback<T> callback);
+
+  /**
+   * Register a callback to run after the current transaction commits. Same as {@code afterCommit(false, callback)}.
+   * 
+   * @param callback Callback to run.
+   * @see #afterCommit(boolean, Runnable)
+   */
+  void afterCommit(Runnable callback);
+
+  /**
+   * Register a callback to run after the current transaction commits. It is not run if the transaction rolls back.
+   * 
+   * @param async If the callback should run in the callback executor instead of the thread completing the transaction.
+   * @param callback Callback to run.
+   * @see #complete(TransactionStatus)
+   */
+  void afterCommit(boolean async, Runnable callback);
+
+  /**
+   * Register a callback to run after the current transaction commits or rolls back. Same as {@code afterCompletion(false, callback)}.
+   * 
+   * @param callback Callback to run, receives the transaction outcome.
+   * @see #afterCompletion(boolean, Consumer)
+   */
+  void afterCompletion(Consumer<TransactionStatus> callback);
+
+  /**
+   * Register a callback to run after the current transaction commits or rolls back.
+   * 
+   * @param async If the callback should run in the callback executor instead of the thread completing the transaction.
+   * @param callback Callback to run, receives the transaction outcome.
+   * @see #complete(TransactionStatus)
+   */
+  void afterCompletion(boolean async, Consumer<TransactionStatus> callback);
+
+  /**
+   * Run the callbacks registered for the current transaction with its outcome. Exceptions thrown by callbacks are logged, as the
+   * transaction is already finished. The transaction is over, so they can call {@link Transactional @Transactional} methods, which start
+   * a new one.
+   * 
+   * <p>
+   * {@link Transactional @Transactional} methods call it once the outermost transaction commits or rolls back, after the work ends if
+   * they began it. Code managing the transaction manually must call it after the commit or rollback, otherwise callbacks are discarded
+   * when the thread begins its next unit of work.
+   * 
+   * @param status Transaction outcome.
+   */
+  void complete(TransactionStatus status);
+
+  /**
+   * Set the fetch plan of the current unit of work. While set, the {@link EntityManager} provided adds it as load graph hint to finds and
+   * JPQL or criteria typed queries of its entity.
+   * 
+   * @param fetchPlan Fetch plan, or null to remove it.
+   * @return The previous fetch plan, so it can be restored, or null if none.
+   */
+  @Nullable
+  FetchPlan setFetchPlan(@Nullable FetchPlan fetchPlan);
+
+  /**
+   * Set the isolation level of the current transaction, before any statement is executed. The previous level is restored on the same
+   * connection once the transaction is finished: by the provider on completion with Hibernate, otherwise on
+   * {@link #complete(TransactionStatus)} or {@link #end()}, if the {@link EntityManager} still holds the connection.
+   * 
+   * @param isolation Isolation level, {@link Isolation#DEFAULT} does nothing.
+   */
+  void setIsolation(Isolation isolation);
+
+  /**
+   * Process items in partitions, running in parallel, each one in its own unit of work and transaction. The work gets the partition
+   * {@link EntityManager} from {@link #getEntityManager()} as usual.
+   * 
+   * <p>
+   * A failed partition is rolled back without affecting the others. Once all partitions are done, a {@link PartitionException} is thrown
+   * if any failed. Partitions do not join the transaction of the calling thread.
+   * 
+   * @param items Items to process, partitioned in iteration order.
+   * @param partitionSize Maximum number of items per partition.
+   * @param parallelism Maximum number of partitions running at the same time, each one uses a connection.
+   * @param work Work done for each partition.
+   * @param <T> Item type.
+   */
+  <T> void processInParallel(Collection<T> items, int partitionSize, int parallelism, Consumer<List<T>> work);
+
+  /**
+   * Same as {@link #processInParallel(Collection, int, int, Consumer)}, collecting the result of each partition.
+   * 
+   * @param items Items to process, partitioned in iteration order.
+   * @param partitionSize Maximum number of items per partition.
+   * @param parallelism Maximum number of partitions running at the same time, each one uses a connection.
+   * @param work Work done for each partition.
+   * @param <T> Item type.
+   * @param <R> Result type.
+   * @return The result of each partition, in partition order.
+   */
+  <T, R> List<R> mapInParallel(Collection<T> items, int partitionSize, int parallelism, Function<List<T>, R> work);
+
+  /**
+   * Discard the current EntityManager. It will be closed on {@link #end()} even if recycling is enabled. Should be called when the unit of
+   * work failed and the EntityManager state cannot be trusted anymore. If work hasn't begun, calling this method does nothing.
+   */
+  void discard();
+
   /**
    * Check if EntityManager has already begun.
    * 
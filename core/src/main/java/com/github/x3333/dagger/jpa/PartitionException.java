@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.PersistenceException;
+
+/**
+ * Thrown by {@link JpaWork#processInParallel} and {@link JpaWork#mapInParallel} when some partitions failed. Each failed partition has been
+ * rolled back, the others have been committed.
+ *
+ * <p>
+ * The cause is the exception of the first failed partition, the exceptions of the others are suppressed.
+ *
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+public class PartitionException extends PersistenceException {
+
+  private static final long serialVersionUID = 6128712617209513270L;
+
+  private final transient List<List<?>> failedPartitions;
+
+  public PartitionException(final String message, final List<List<?>> failedPartitions, final List<Throwable> failures) {
+    super(message, failures.get(0));
+    this.failedPartitions = Collections.unmodifiableList(failedPartitions);
+    for (int i = 1; i < failures.size(); i++) {
+      addSuppressed(failures.get(i));
+    }
+  }
+
+  /**
+   * Items of the partitions that failed, so they can be retried.
+   *
+   * @return Failed partitions, in input order.
+   */
+  public List<List<?>> getFailedPartitions() {
+    return failedPartitions;
+  }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Per method summary of the statements executed by {@link Transactional @Transactional} methods. Only filled if
+ * {@link JpaProperties#STATISTICS} is enabled.
+ *
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+@Singleton
+public final class StatementReport {
+
+  private final boolean failOnBudget;
+  private final int repetitionThreshold;
+  private final ConcurrentMap<String, MethodStatistics> methods = new ConcurrentHashMap<>();
+
+  //
+
+  @Inject
+  public StatementReport(@Nullable @Named("jpa.properties") final Map<?, ?> persistenceProperties) {
+    this.failOnBudget = JpaProperties.getBoolean(persistenceProperties, JpaProperties.STATISTICS_FAIL_ON_BUDGET, false);
+    this.repetitionThreshold = JpaProperties.getInt(persistenceProperties, JpaProperties.STATISTICS_REPETITION_THRESHOLD, 10);
+  }
+
+  //
+
+  /**
+   * Statistics of all methods invoked so far.
+   *
+   * @return Copy of the map of method name to its statistics, sorted by method name.
+   */
+  public Map<String, MethodStatistics> getMethods() {
+    return new TreeMap<>(methods);
+  }
+
+  /**
+   * Discard all statistics.
+   */
+  public void reset() {
+    methods.clear();
+  }
+
+  /**
+   * A human readable summary, one line per method.
+   *
+   * @return The summary.
+   */
+  public String summary() {
+    final StringBuilder sb = new StringBuilder();
+    getMethods().forEach((method, statistics) -> sb.append(method).append(": ").append(statistics).append('\n'));
+    return sb.toString();
+  }
+
+  //
+
+  boolean isFailOnBudget() {
+    return failOnBudget;
+  }
+
+  int getRepetitionThreshold() {
+    return repetitionThreshold;
+  }
+
+  void record(final String method, final int statements, final boolean exceeded) {
+    methods.computeIfAbsent(method, k -> new MethodStatistics()).record(statements, exceeded);
+  }
+
+  void recordRepetition(final String method) {
+    methods.computeIfAbsent(method, k -> new MethodStatistics()).repetitions.incrementAndGet();
+  }
+
+  //
+
+  /**
+   * Statements executed by a single method.
+   */
+  public static final class MethodStatistics {
+
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAccumulator maxStatements = new LongAccumulator(Math::max, 0);
+    private final AtomicLong budgetExceeded = new AtomicLong();
+    private final AtomicLong repetitions = new AtomicLong();
+
+    MethodStatistics() {}
+
+    void record(final int count, final boolean exceeded) {
+      invocations.increment();
+      statements.add(count);
+      maxStatements.accumulate(count);
+      if (exceeded) {
+        budgetExceeded.incrementAndGet();
+      }
+    }
+
+    public long getInvocations() {
+      return invocations.sum();
+    }
+
+    public long getStatements() {
+      return statements.sum();
+    }
+
+    public long getMaxStatements() {
+      return maxStatements.get();
+    }
+
+    public long getBudgetExceeded() {
+      return budgetExceeded.get();
+    }
+
+    /**
+     * Number of statements repeated more than {@link JpaProperties#STATISTICS_REPETITION_THRESHOLD} times in a transaction of this method,
+     * possible N+1 loading patterns.
+     *
+     * @return Number of repeated statements found.
+     */
+    public long getRepetitions() {
+      return repetitions.get();
+    }
+
+    @Override
+    public String toString() {
+      final long count = getInvocations();
+      return "invocations=" + count //
+          + ", statements=" + getStatements() //
+          + ", avg=" + (count == 0 ? 0 : getStatements() / count) //
+          + ", max=" + getMaxStatements() //
+          + ", budgetExceeded=" + getBudgetExceeded() //
+          + ", repetitions=" + getRepetitions();
+    }
+
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa;
+
+import javax.annotation.Nullable;
+import javax.persistence.EntityManager;
+
+/**
+ * Isolation level and lock timeout of a {@link Transactional @Transactional} method, applied when its transaction begins. The isolation
+ * is restored by {@link JpaWork#setIsolation(Isolation)} on the transaction connection, the lock timeout in effect before is kept to be
+ * restored once the transaction is finished.
+ * 
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+final class TransactionSettings {
+
+  static final String LOCK_TIMEOUT = "javax.persistence.lock.timeout";
+  // Wait forever, Hibernate default, used when neither the EntityManager nor its factory has a value
+  private static final int DEFAULT_LOCK_TIMEOUT = -1;
+
+  private final EntityManager em;
+  private final Object previousLockTimeout;
+  private boolean restored;
+
+  //
+
+  private TransactionSettings(final EntityManager em, final Object previousLockTimeout) {
+    this.em = em;
+    this.previousLockTimeout = previousLockTimeout;
+  }
+
+  //
+
+  /**
+   * Apply the settings of a method to the current transaction.
+   * 
+   * @return The settings to restore, null if there is nothing to restore.
+   */
+  @Nullable
+  static TransactionSettings apply(final JpaWork work, final EntityManager em, final Transactional transactional) {
+    work.setIsolation(transactional.isolation());
+
+    final int lockTimeout = transactional.lockTimeoutMillis();
+    if (lockTimeout < 0) {
+      return null;
+    }
+    final Object previousLockTimeout = effectiveLockTimeout(em);
+    em.setProperty(LOCK_TIMEOUT, lockTimeout);
+    return new TransactionSettings(em, previousLockTimeout);
+  }
+
+  /**
+   * Lock timeout in effect: the one of the EntityManager, else the one of its factory, else the provider default. JPA has no way to
+   * remove a property, so it is restored to the effective value.
+   */
+  private static Object effectiveLockTimeout(final EntityManager em) {
+    final Object lockTimeout = em.getProperties().get(LOCK_TIMEOUT);
+    if (lockTimeout != null) {
+      return lockTimeout;
+    }
+    final Object factoryLockTimeout = em.getEntityManagerFactory().getProperties().get(LOCK_TIMEOUT);
+    return factoryLockTimeout != null ? factoryLockTimeout : DEFAULT_LOCK_TIMEOUT;
+  }
+
+  /**
+   * Restore the previous values. Calling it again does nothing.
+   */
+  void restore() {
+    if (!restored) {
+      restored = true;
+      em.setProperty(LOCK_TIMEOUT, previousLockTimeout);
+    }
+  }
+
+}
@@ -48,4 +48,51 @@ public @interface Transactional {
    */
   Class<? extends Exception>[] rollbackOn() default Exception.class;
 
+  /**
+   * Maximum number of statements this method may execute, including nested transactional calls. See {@link WorkStatistics#getTotal()}.
+   * The method starting the outermost transaction flushes before the check, so the changes sent on commit are counted.
+   *
+   * <p>
+   * Only checked if {@link JpaProperties#STATISTICS} is enabled. When exceeded, it is logged, or a
+   * {@link StatementBudgetExceededException} is thrown if {@link JpaProperties#STATISTICS_FAIL_ON_BUDGET} is enabled.
+   * 
+   * @return Statement budget. By default -1, no budget.
+   */
+  int maxStatements() default -1;
+
+  /**
+   * Entity graph used as default load graph by finds and queries while this method runs. Nested transactional methods may replace it
+   * during their execution.
+   * 
+   * @return The fetch plan. By default none.
+   */
+  FetchPlan fetchPlan() default @FetchPlan(entity = void.class);
+
+  /**
+   * Group whose {@link ConcurrencyLimiter} limits this method, when it starts the outermost transaction. Only used if
+   * {@link JpaProperties#LIMITER} is enabled.
+   * 
+   * @return Limiter group. By default the empty string, the group of the whole persistence unit.
+   */
+  String limiterGroup() default "";
+
+  /**
+   * Isolation level of the transaction. Only applied by the method starting the outermost transaction, joining methods use the isolation
+   * of the transaction in place. The previous isolation is restored on the same connection once the transaction is finished, see
+   * {@link JpaWork#setIsolation(Isolation)}.
+   * 
+   * @return Isolation level. By default {@link Isolation#DEFAULT}, the connection isolation.
+   */
+  Isolation isolation() default Isolation.DEFAULT;
+
+  /**
+   * Pessimistic lock timeout in milliseconds, set as {@code javax.persistence.lock.timeout} property of the {@code EntityManager}. Only
+   * applied by the method starting the outermost transaction. The value in effect before is restored once the transaction is finished:
+   * the one of the {@code EntityManager}, else the one of the {@code EntityManagerFactory}, else -1, Hibernate default, as JPA can't
+   * remove a property.
+   * 
+   * @return Lock timeout in milliseconds. By default -1, the provider default.
+   */
+  int lockTimeoutMillis() default -1;
+
 }
@@ -13,11 +13,14 @@
 
 package com.github.x3333.dagger.jpa;
 
-import static java.lang.Boolean.TRUE;
-
 import com.github.x3333.dagger.aop.MethodInterceptor;
 import com.github.x3333.dagger.aop.MethodInvocation;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
@@ -32,80 +35,163 @@ import org.slf4j.LoggerFactory;
  */
 public final class TransactionalInterceptor implements MethodInterceptor {
 
+  private static final String AOP_PACKAGE = MethodInterceptor.class.getPackage().getName() + ".";
+  // Prefix of the subclasses generated by dagger-aop
+  private static final String GENERATED_PREFIX = "Interceptor_";
+
   private final Logger logger = LoggerFactory.getLogger(TransactionalInterceptor.class);
 
   private final JpaWork work;
-  private final ThreadLocal<Boolean> shouldClose = new ThreadLocal<>();
+  private final StatementReport report;
+  private final ConcurrencyLimiters limiters;
+  // By identity, each method has its own annotation instance, equal to the ones of other methods with the same values
+  private final Map<Transactional, String> methodNames = Collections.synchronizedMap(new IdentityHashMap<>());
 
   //
 
   @Inject
-  public TransactionalInterceptor(final JpaWork work) {
+  public TransactionalInterceptor(final JpaWork work, final StatementReport report, final ConcurrencyLimiters limiters) {
     this.work = work;
+    this.report = report;
+    this.limiters = limiters;
   }
 
   //
 
   @Override
-  @SuppressWarnings("unchecked")
   public <T> T invoke(final MethodInvocation invocation) throws Throwable {
-    if (!work.hasBegun()) {
+    final Transactional transactional = invocation.annotation(Transactional.class);
+
+    // Only limit outermost transactions. Joining ones, and the ones started by callbacks of this thread, already hold a slot
+    final boolean joining = work.hasBegun() && work.getEntityManager().getTransaction().isActive();
+    final ConcurrencyLimiter limiter = joining || limiters.holdsSlot() ? null : limiters.get(transactional.limiterGroup());
+    if (limiter == null) {
+      return invoke(invocation, transactional);
+    }
+
+    final long start;
+    try {
+      start = limiter.acquire();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TransactionRejectedException("Interrupted waiting for a slot of the " + limiter.getName(), e);
+    }
+    limiters.setHoldsSlot(true);
+    try {
+      return invoke(invocation, transactional);
+    } finally {
+      limiters.setHoldsSlot(false);
+      limiter.release(start);
+    }
+  }
+
+  private <T> T invoke(final MethodInvocation invocation, final Transactional transactional) throws Throwable {
+    final boolean owner = !work.hasBegun();
+    if (owner) {
       work.begin();
-      shouldClose.set(true);
     }
 
+    final WorkStatistics statistics = WorkStatistics.current();
+    final String method = statistics == null ? null : methodName(transactional);
+    final int statementsBefore = statistics == null ? 0 : statistics.getTotal();
+
     final EntityManager em = work.getEntityManager();
     final EntityTransaction transaction = em.getTransaction();
 
     // If there is an active transaction, join.
     if (transaction.isActive()) {
       logger.trace("Active transaction in place");
-      return (T) invocation.proceed();
+      final T result = proceed(invocation, transactional);
+      checkBudget(transaction, transactional, statistics, method, statementsBefore);
+      return result;
     }
 
     transaction.begin();
     logger.trace("Transaction begun");
 
+    TransactionSettings settings = null;
+    TransactionStatus status = TransactionStatus.ROLLED_BACK;
     final T result;
     try {
-      logger.trace("Invoking");
-      result = (T) invocation.proceed();
-    } catch (final Exception e) {
-      final boolean rollback = doRollback(transaction, e, invocation.annotation(Transactional.class));
-      if (rollback) {
-        logger.trace("Reverting", e);
-        transaction.rollback();
-      } else {
-        logger.trace("Committing", e);
+      try {
+        settings = TransactionSettings.apply(work, em, transactional);
+        logger.trace("Invoking");
+        result = proceed(invocation, transactional);
+        if (statistics != null && !transaction.getRollbackOnly()) {
+          // Count the statements the commit would flush
+          em.flush();
+        }
+        checkBudget(transaction, transactional, statistics, method, statementsBefore);
+        checkRepetitions(statistics, method);
+      } catch (final Exception e) {
+        // EntityManager state is not reliable after an error, don't recycle it.
+        work.discard();
+        final boolean rollback = doRollback(transaction, e, transactional);
+        if (rollback) {
+          logger.trace("Reverting", e);
+          transaction.rollback();
+        } else {
+          logger.trace("Committing", e);
+          transaction.commit();
+          status = TransactionStatus.COMMITTED;
+        }
+        throw e; // Continue exception flow
+      }
+
+      try {
+        logger.trace("Committing");
         transaction.commit();
+        status = TransactionStatus.COMMITTED;
+      } catch (final RuntimeException e) {
+        work.discard();
+        throw e;
       }
-      throw e; // Continue exception flow
     } finally {
-      // Close the EM in case we started work and transaction is not active anymore.
-      if (TRUE.equals(shouldClose.get()) && !transaction.isActive()) {
-        shouldClose.remove();
-        work.end();
+      if (!transaction.isActive()) {
+        restore(settings);
+        // Close the EM if we began the work
+        if (owner) {
+          work.end();
+        }
+        // Once the work is over, callbacks may start their own
+        work.complete(status);
       }
     }
 
+    return result;
+  }
+
+  /**
+   * Proceed with the fetch plan of the method, if any, restoring the previous one after.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T proceed(final MethodInvocation invocation, final Transactional transactional) throws Throwable {
+    final FetchPlan fetchPlan = transactional.fetchPlan();
+    if (fetchPlan.entity() == void.class) {
+      return (T) invocation.proceed();
+    }
+
+    final FetchPlan previous = work.setFetchPlan(fetchPlan);
     try {
-      logger.trace("Committing");
-      transaction.commit();
+      return (T) invocation.proceed();
     } finally {
-      // Close the EM if we begin the work
-      if (TRUE.equals(shouldClose.get())) {
-        shouldClose.remove();
-        work.end();
-      }
+      work.setFetchPlan(previous);
     }
+  }
 
-    return result;
+  private void restore(@Nullable final TransactionSettings settings) {
+    if (settings != null && work.hasBegun()) {
+      settings.restore();
+    }
   }
 
   private boolean doRollback(//
       final EntityTransaction transaction, //
       final Exception e, //
       final Transactional transactional) {
+    if (transaction.isActive() && transaction.getRollbackOnly()) {
+      return true;
+    }
     for (final Class<? extends Exception> rollbackException : transactional.rollbackOn()) {
       if (rollbackException.isInstance(e)) {
         return true;
@@ -114,4 +200,78 @@ public final class TransactionalInterceptor implements MethodInterceptor {
     return false;
   }
 
+  private void checkBudget(//
+      final EntityTransaction transaction, //
+      final Transactional transactional, //
+      @Nullable final WorkStatistics statistics, //
+      final String method, //
+      final int statementsBefore) {
+    if (statistics == null) {
+      return;
+    }
+
+    final int statements = statistics.getTotal() - statementsBefore;
+    final int budget = transactional.maxStatements();
+    final boolean exceeded = budget >= 0 && statements > budget;
+    report.record(method, statements, exceeded);
+    if (!exceeded) {
+      return;
+    }
+
+    final String message = method + " executed " + statements + " statements, budget is " + budget;
+    if (!report.isFailOnBudget()) {
+      logger.warn(message);
+      return;
+    }
+    if (transaction.isActive()) {
+      transaction.setRollbackOnly();
+    }
+    throw new StatementBudgetExceededException(message);
+  }
+
+  private void checkRepetitions(@Nullable final WorkStatistics statistics, final String method) {
+    if (statistics == null) {
+      return;
+    }
+
+    final int threshold = report.getRepetitionThreshold();
+    if (threshold > 0) {
+      statistics.getRepetitions().forEach((statement, count) -> {
+        if (count > threshold) {
+          logger.warn("Possible N+1 in {}, executed {} times: {}", method, count, statement);
+          report.recordRepetition(method);
+        }
+      });
+    }
+    statistics.clearRepetitions();
+  }
+
+  private String methodName(final Transactional transactional) {
+    String name = methodNames.get(transactional);
+    if (name == null) {
+      // Not computeIfAbsent, the stack walk must start here
+      name = invokedMethod();
+      methodNames.put(transactional, name);
+    }
+    return name;
+  }
+
+  /**
+   * Find the intercepted method in the call stack, the first frame outside the interceptor and dagger-aop, which is the generated
+   * subclass. It is named after the intercepted class. Not cheap, so only done once per method, when statistics are enabled.
+   */
+  private static String invokedMethod() {
+    for (final StackTraceElement element : new Throwable().getStackTrace()) {
+      final String className = element.getClassName();
+      if (!className.startsWith(TransactionalInterceptor.class.getName()) && !className.startsWith(AOP_PACKAGE)) {
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        if (simpleName.startsWith(GENERATED_PREFIX)) {
+          simpleName = simpleName.substring(GENERATED_PREFIX.length());
+        }
+        return simpleName + "." + element.getMethodName();
+      }
+    }
+    return "unknown";
+  }
+
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Counters of the database work done by the current thread's unit of work. Only available if {@link JpaProperties#STATISTICS} is enabled.
+ *
+ * <p>
+ * Queries and entity loads are counted by the {@code EntityManager} handed out by {@link JpaWork}. SQL statements and lazy collection
+ * initializations are only visible to the persistence provider, so they must be reported by a provider hook, for instance an Hibernate
+ * {@code StatementInspector}, and {@link JpaProperties#STATISTICS_PROVIDER_STATEMENTS} enabled:
+ *
+ * <pre>
+ * public String inspect(String sql) {
+ *   WorkStatistics statistics = WorkStatistics.current();
+ *   if (statistics != null) {
+ *     statistics.recordStatement(sql);
+ *   }
+ *   return sql;
+ * }
+ * </pre>
+ *
+ * <p>
+ * Instances are confined to the thread that owns the unit of work and are not thread safe.
+ *
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+public final class WorkStatistics {
+
+  private static final ThreadLocal<WorkStatistics> CURRENT = new ThreadLocal<>();
+
+  private final boolean providerStatements;
+  private int queries;
+  private int entityLoads;
+  private int collectionLoads;
+  private int statements;
+  private final Map<String, Integer> repetitions = new HashMap<>();
+
+  //
+
+  private WorkStatistics(final boolean providerStatements) {
+    this.providerStatements = providerStatements;
+  }
+
+  //
+
+  /**
+   * Statistics of the unit of work bound to the current thread.
+   *
+   * @return Current statistics, null if work hasn't begun or statistics are disabled.
+   */
+  @Nullable
+  public static WorkStatistics current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Bind new statistics to the current thread. Used by {@link JpaWork} implementations when work begins.
+   *
+   * @param providerStatements If statements are reported by a provider hook, see {@link #getTotal()}.
+   * @return The statistics bound.
+   */
+  public static WorkStatistics bind(final boolean providerStatements) {
+    final WorkStatistics statistics = new WorkStatistics(providerStatements);
+    CURRENT.set(statistics);
+    return statistics;
+  }
+
+  /**
+   * Unbind the statistics from the current thread. Used by {@link JpaWork} implementations when work ends.
+   */
+  public static void unbind() {
+    CURRENT.remove();
+  }
+
+  //
+
+  /**
+   * Record a query execution.
+   *
+   * @param query Query string, or any description of it.
+   */
+  public void recordQuery(final String query) {
+    queries++;
+    if (!providerStatements) {
+      repeat(query);
+    }
+  }
+
+  /**
+   * Record an entity load, {@code find} or {@code refresh}.
+   *
+   * @param entityClass Entity loaded.
+   */
+  public void recordEntityLoad(final Class<?> entityClass) {
+    entityLoads++;
+    if (!providerStatements) {
+      repeat("load " + entityClass.getName());
+    }
+  }
+
+  /**
+   * Record a lazy collection initialization. Must be called by a provider hook.
+   *
+   * @param role Collection role, usually the owner entity name plus the attribute name.
+   */
+  public void recordCollectionLoad(final String role) {
+    collectionLoads++;
+    repeat("collection " + role);
+  }
+
+  /**
+   * Record a SQL statement sent to the database. Must be called by a provider hook.
+   *
+   * @param sql Statement SQL.
+   */
+  public void recordStatement(final String sql) {
+    statements++;
+    repeat(sql);
+  }
+
+  //
+
+  public int getQueries() {
+    return queries;
+  }
+
+  public int getEntityLoads() {
+    return entityLoads;
+  }
+
+  public int getCollectionLoads() {
+    return collectionLoads;
+  }
+
+  public int getStatements() {
+    return statements;
+  }
+
+  /**
+   * Total of statements used to check {@link Transactional#maxStatements()}. If a provider hook reports SQL statements, it is the number of
+   * statements, otherwise the sum of queries, entity loads and collection loads. Which one is used is fixed when the statistics are bound,
+   * so the total never switches from one count to the other in a unit of work.
+   *
+   * @return Total of statements.
+   */
+  public int getTotal() {
+    return providerStatements ? statements : queries + entityLoads + collectionLoads;
+  }
+
+  /**
+   * How many times each query, statement, entity load or collection load has been repeated since the last {@link #clearRepetitions()}. The
+   * same statement executed many times in a unit of work is usually an N+1 loading pattern. If statements are reported by a provider hook,
+   * queries and entity loads are not counted here, their SQL statements are.
+   *
+   * @return Unmodifiable view of the repetitions.
+   */
+  public Map<String, Integer> getRepetitions() {
+    return Collections.unmodifiableMap(repetitions);
+  }
+
+  /**
+   * Clear the repetitions.
+   */
+  public void clearRepetitions() {
+    repetitions.clear();
+  }
+
+  //
+
+  private void repeat(final String key) {
+    repetitions.merge(key, 1, Integer::sum);
+  }
+
+}
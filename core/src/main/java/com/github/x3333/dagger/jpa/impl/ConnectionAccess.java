@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa.impl;
+
+import com.github.x3333.dagger.jpa.ConnectionCallback;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+/**
+ * Gives access to the JDBC connection of an {@link EntityManager}. JPA has no standard way to do it, so providers are handled case by case:
+ * Hibernate through {@code Session.doReturningWork}, others through {@code EntityManager.unwrap(Connection.class)}, supported by
+ * EclipseLink and OpenJPA.
+ * 
+ * <p>
+ * Work that must run on the connection once the transaction completes, before it is released, can only be registered with Hibernate,
+ * through a {@code javax.transaction.Synchronization}.
+ * 
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+final class ConnectionAccess {
+
+  private static final Class<?> HIBERNATE_SESSION = loadClass("org.hibernate.Session");
+  private static final Class<?> HIBERNATE_RETURNING_WORK = loadClass("org.hibernate.jdbc.ReturningWork");
+  private static final Method HIBERNATE_DO_RETURNING_WORK = hibernateDoReturningWork();
+  private static final Class<?> SYNCHRONIZATION = loadClass("javax.transaction.Synchronization");
+  private static final Method HIBERNATE_GET_TRANSACTION = hibernateMethod(HIBERNATE_SESSION, "getTransaction");
+  private static final Method HIBERNATE_REGISTER_SYNCHRONIZATION =
+      hibernateMethod(loadClass("org.hibernate.Transaction"), "registerSynchronization", SYNCHRONIZATION);
+
+  //
+
+  private ConnectionAccess() {}
+
+  //
+
+  static <T> T doWork(final EntityManager em, final ConnectionCallback<T> callback) {
+    if (HIBERNATE_DO_RETURNING_WORK != null && HIBERNATE_SESSION.isInstance(em.getDelegate())) {
+      return doHibernateWork(em.unwrap(HIBERNATE_SESSION), callback);
+    }
+
+    try {
+      return callback.doInConnection(em.unwrap(Connection.class));
+    } catch (final SQLException e) {
+      throw new PersistenceException(e);
+    }
+  }
+
+  /**
+   * Register a callback run once the active transaction completes, before the provider releases the connection. Only supported with
+   * Hibernate.
+   * 
+   * @param em EntityManager with an active transaction.
+   * @param callback Callback to run, in the thread completing the transaction.
+   * @return true if registered, false if not supported by the provider.
+   */
+  static boolean afterCompletion(final EntityManager em, final Runnable callback) {
+    if (HIBERNATE_REGISTER_SYNCHRONIZATION == null || !HIBERNATE_SESSION.isInstance(em.getDelegate())) {
+      return false;
+    }
+
+    final Object synchronization = Proxy.newProxyInstance(SYNCHRONIZATION.getClassLoader(), new Class<?>[] {SYNCHRONIZATION},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "beforeCompletion":
+              return null;
+            case "afterCompletion":
+              callback.run();
+              return null;
+            case "equals":
+              return proxy == args[0];
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            default:
+              return callback.toString();
+          }
+        });
+
+    invoke(HIBERNATE_REGISTER_SYNCHRONIZATION, invoke(HIBERNATE_GET_TRANSACTION, em.unwrap(HIBERNATE_SESSION)), synchronization);
+    return true;
+  }
+
+  //
+
+  @SuppressWarnings("unchecked")
+  private static <T> T doHibernateWork(final Object session, final ConnectionCallback<T> callback) {
+    final Object work = Proxy.newProxyInstance(HIBERNATE_RETURNING_WORK.getClassLoader(), new Class<?>[] {HIBERNATE_RETURNING_WORK},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "execute":
+              return callback.doInConnection((Connection) args[0]);
+            case "equals":
+              return proxy == args[0];
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            default:
+              return callback.toString();
+          }
+        });
+
+    return (T) invoke(HIBERNATE_DO_RETURNING_WORK, session, work);
+  }
+
+  private static Object invoke(final Method method, final Object target, final Object... args) {
+    try {
+      return method.invoke(target, args);
+    } catch (final InvocationTargetException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new PersistenceException(cause);
+    } catch (final IllegalAccessException e) {
+      throw new PersistenceException(e);
+    }
+  }
+
+  private static Method hibernateDoReturningWork() {
+    if (HIBERNATE_SESSION == null || HIBERNATE_RETURNING_WORK == null) {
+      return null;
+    }
+    try {
+      return HIBERNATE_SESSION.getMethod("doReturningWork", HIBERNATE_RETURNING_WORK);
+    } catch (final NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static Method hibernateMethod(final Class<?> type, final String name, final Class<?>... parameterTypes) {
+    if (type == null || HIBERNATE_SESSION == null) {
+      return null;
+    }
+    for (final Class<?> parameterType : parameterTypes) {
+      if (parameterType == null) {
+        return null;
+      }
+    }
+    try {
+      return type.getMethod(name, parameterTypes);
+    } catch (final NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static Class<?> loadClass(final String className) {
+    try {
+      return Class.forName(className, false, ConnectionAccess.class.getClassLoader());
+    } catch (final ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+}
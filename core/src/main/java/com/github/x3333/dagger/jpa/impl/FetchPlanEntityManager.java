@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa.impl;
+
+import com.github.x3333.dagger.jpa.FetchPlan;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.Subgraph;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaQuery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps an {@link EntityManager} to add an entity graph as {@code javax.persistence.loadgraph} hint to finds and JPQL or criteria typed
+ * queries of the graph entity. Native queries don't support entity graphs and are left untouched.
+ * 
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+final class FetchPlanEntityManager implements InvocationHandler {
+
+  static final String LOAD_GRAPH = "javax.persistence.loadgraph";
+  static final String FETCH_GRAPH = "javax.persistence.fetchgraph";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(FetchPlanEntityManager.class);
+
+  // Hibernate accepts entity graph hints on native queries, but fails to execute them. 5.2 has NativeQuery, older versions SQLQuery.
+  private static final Class<?> HIBERNATE_NATIVE_QUERY = hibernateNativeQuery();
+
+  private final EntityManager target;
+  private final Class<?> entity;
+  private final EntityGraph<?> graph;
+
+  //
+
+  private FetchPlanEntityManager(final EntityManager target, final Class<?> entity, final EntityGraph<?> graph) {
+    this.target = target;
+    this.entity = entity;
+    this.graph = graph;
+  }
+
+  //
+
+  static EntityManager wrap(final EntityManager em, final Class<?> entity, final EntityGraph<?> graph) {
+    return (EntityManager) Proxy.newProxyInstance(EntityManager.class.getClassLoader(), new Class<?>[] {EntityManager.class},
+        new FetchPlanEntityManager(em, entity, graph));
+  }
+
+  /**
+   * Build the entity graph of a fetch plan.
+   * 
+   * @param em EntityManager used to create the graph.
+   * @param fetchPlan Fetch plan.
+   * @return The entity graph.
+   */
+  static EntityGraph<?> buildGraph(final EntityManager em, final FetchPlan fetchPlan) {
+    if (!fetchPlan.graph().isEmpty()) {
+      return em.getEntityGraph(fetchPlan.graph());
+    }
+
+    final EntityGraph<?> graph = em.createEntityGraph(fetchPlan.entity());
+    for (final String attribute : fetchPlan.attributes()) {
+      final String[] path = attribute.split("\\.");
+      if (path.length == 1) {
+        graph.addAttributeNodes(attribute);
+        continue;
+      }
+      Subgraph<?> subgraph = graph.addSubgraph(path[0]);
+      for (int i = 1; i < path.length - 1; i++) {
+        subgraph = subgraph.addSubgraph(path[i]);
+      }
+      subgraph.addAttributeNodes(path[path.length - 1]);
+    }
+    return graph;
+  }
+
+  //
+
+  @Override
+  public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "find":
+        if (entity.isAssignableFrom((Class<?>) args[0])) {
+          return find(args);
+        }
+        break;
+      default:
+        break;
+    }
+
+    final Object result;
+    try {
+      result = method.invoke(target, args);
+    } catch (final InvocationTargetException e) {
+      throw e.getCause();
+    }
+    if (result instanceof TypedQuery && entity.isAssignableFrom(resultType(args))) {
+      switch (method.getName()) {
+        case "createQuery":
+          hint((TypedQuery<?>) result);
+          break;
+        case "createNamedQuery":
+          if (!isNativeQuery((TypedQuery<?>) result)) {
+            hint((TypedQuery<?>) result);
+          }
+          break;
+        default:
+          // createNativeQuery results may implement TypedQuery too, depending on the provider
+          break;
+      }
+    }
+    return result;
+  }
+
+  //
+
+  /**
+   * Call the find overload taking properties, with the graph hint added.
+   */
+  @SuppressWarnings("unchecked")
+  private Object find(final Object[] args) {
+    final Class<?> entityClass = (Class<?>) args[0];
+    final Object primaryKey = args[1];
+    LockModeType lockMode = null;
+    Map<String, Object> properties = null;
+    for (int i = 2; i < args.length; i++) {
+      if (args[i] instanceof LockModeType) {
+        lockMode = (LockModeType) args[i];
+      } else {
+        properties = (Map<String, Object>) args[i];
+      }
+    }
+
+    if (properties == null || !properties.containsKey(LOAD_GRAPH) && !properties.containsKey(FETCH_GRAPH)) {
+      properties = properties == null ? new HashMap<>() : new HashMap<>(properties);
+      properties.put(LOAD_GRAPH, graph);
+    }
+    return lockMode == null //
+        ? target.find(entityClass, primaryKey, properties) //
+        : target.find(entityClass, primaryKey, lockMode, properties);
+  }
+
+  private void hint(final TypedQuery<?> query) {
+    if (query.getHints().containsKey(LOAD_GRAPH) || query.getHints().containsKey(FETCH_GRAPH)) {
+      return;
+    }
+    try {
+      query.setHint(LOAD_GRAPH, graph);
+    } catch (final RuntimeException e) {
+      // A named query may be a native one, which some providers reject entity graphs for
+      LOGGER.debug("Fetch plan not applied, query rejected the entity graph", e);
+    }
+  }
+
+  /**
+   * If a named query is a native one. JPA can't tell, so only Hibernate ones are detected.
+   */
+  private static boolean isNativeQuery(final TypedQuery<?> query) {
+    if (HIBERNATE_NATIVE_QUERY == null) {
+      return false;
+    }
+    try {
+      return query.unwrap(HIBERNATE_NATIVE_QUERY) != null;
+    } catch (final RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Result type of a createQuery or createNamedQuery call, Object if unknown.
+   */
+  private static Class<?> resultType(final Object[] args) {
+    if (args.length == 2 && args[1] instanceof Class) {
+      return (Class<?>) args[1];
+    }
+    if (args.length == 1 && args[0] instanceof CriteriaQuery) {
+      return ((CriteriaQuery<?>) args[0]).getResultType();
+    }
+    return Object.class;
+  }
+
+  private static Class<?> hibernateNativeQuery() {
+    for (final String className : new String[] {"org.hibernate.query.NativeQuery", "org.hibernate.SQLQuery"}) {
+      try {
+        return Class.forName(className, false, FetchPlanEntityManager.class.getClassLoader());
+      } catch (final ClassNotFoundException e) {
+        // Try the next one
+      }
+    }
+    return null;
+  }
+
+}
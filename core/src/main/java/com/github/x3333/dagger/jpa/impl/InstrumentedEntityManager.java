@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa.impl;
+
+import com.github.x3333.dagger.jpa.WorkStatistics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.NoResultException;
+import javax.persistence.NonUniqueResultException;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import javax.persistence.criteria.AbstractQuery;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Root;
+
+/**
+ * Wraps an {@link EntityManager} and the {@link Query Queries} it creates to record their work in a {@link WorkStatistics}, if any. It
+ * also tracks changes to the EntityManager state that {@link EntityManager#clear()} doesn't revert, and failures of the EntityManager,
+ * its queries and its transaction, so such an EntityManager is not recycled.
+ * 
+ * <p>
+ * Queries are described by their string. Criteria queries have none, Hibernate renders them to JPQL, with the numeric literals it inlines
+ * masked, with other providers they are described by their root entities.
+ * 
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+final class InstrumentedEntityManager implements InvocationHandler {
+
+  private static final Method HIBERNATE_GET_QUERY_STRING = hibernateGetQueryString();
+  // Numeric literals Hibernate inlines when rendering criteria queries, aliases like generatedAlias0 don't match
+  private static final Pattern NUMERIC_LITERAL = Pattern.compile("\\b\\d+(\\.\\d+)?[LDFldf]?\\b");
+
+  private final EntityManager target;
+  private final WorkStatistics statistics;
+  private boolean stateChanged;
+  private boolean failed;
+
+  //
+
+  private InstrumentedEntityManager(final EntityManager target, @Nullable final WorkStatistics statistics) {
+    this.target = target;
+    this.statistics = statistics;
+  }
+
+  //
+
+  static EntityManager wrap(final EntityManager em, @Nullable final WorkStatistics statistics) {
+    return (EntityManager) Proxy.newProxyInstance(EntityManager.class.getClassLoader(), new Class<?>[] {EntityManager.class},
+        new InstrumentedEntityManager(em, statistics));
+  }
+
+  /**
+   * Get the wrapped EntityManager.
+   * 
+   * @param em EntityManager, wrapped or not.
+   * @return The EntityManager wrapped, or {@code em} itself if not wrapped.
+   */
+  static EntityManager unwrap(final EntityManager em) {
+    if (Proxy.isProxyClass(em.getClass())) {
+      final InvocationHandler handler = Proxy.getInvocationHandler(em);
+      if (handler instanceof InstrumentedEntityManager) {
+        return ((InstrumentedEntityManager) handler).target;
+      }
+    }
+    return em;
+  }
+
+  /**
+   * Check if the wrapped EntityManager can be recycled. It can't if its state may have been changed in a way
+   * {@link EntityManager#clear()} doesn't revert: a property has been set, or the provider API has been reached through
+   * {@link EntityManager#unwrap(Class)} or {@link EntityManager#getDelegate()}. Neither if the provider threw a
+   * {@link PersistenceException}, as the persistence context can't be trusted anymore, even if the caller handled it.
+   * {@link NoResultException} and {@link NonUniqueResultException} don't count, they leave the persistence context intact.
+   * 
+   * @param em EntityManager, wrapped or not.
+   * @return false if it can't be recycled, true if it can or if {@code em} is not wrapped.
+   */
+  static boolean isRecyclable(final EntityManager em) {
+    if (Proxy.isProxyClass(em.getClass())) {
+      final InvocationHandler handler = Proxy.getInvocationHandler(em);
+      if (handler instanceof InstrumentedEntityManager) {
+        final InstrumentedEntityManager instrumented = (InstrumentedEntityManager) handler;
+        return !instrumented.stateChanged && !instrumented.failed;
+      }
+    }
+    return true;
+  }
+
+  //
+
+  @Override
+  public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "setProperty":
+      case "unwrap":
+      case "getDelegate":
+        stateChanged = true;
+        break;
+      case "find":
+        if (statistics != null) {
+          statistics.recordEntityLoad((Class<?>) args[0]);
+        }
+        break;
+      case "refresh":
+        if (statistics != null) {
+          statistics.recordEntityLoad(args[0].getClass());
+        }
+        break;
+      default:
+        break;
+    }
+
+    final Object result = invokeTarget(target, method, args);
+    if (result instanceof Query && method.getReturnType().isInterface()) {
+      return wrapQuery((Query) result, method.getReturnType(), statistics == null ? null : describe(args[0], (Query) result));
+    }
+    if (result instanceof EntityTransaction) {
+      return wrapTransaction((EntityTransaction) result);
+    }
+    return result;
+  }
+
+  //
+
+  private Object wrapQuery(final Query query, final Class<?> queryInterface, @Nullable final String description) {
+    return Proxy.newProxyInstance(EntityManager.class.getClassLoader(), new Class<?>[] {queryInterface}, new InvocationHandler() {
+
+      @Override
+      public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        switch (method.getName()) {
+          case "equals":
+            return proxy == args[0];
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          case "getResultList":
+          case "getSingleResult":
+          case "executeUpdate":
+            if (statistics != null) {
+              statistics.recordQuery(description);
+            }
+            break;
+          default:
+            break;
+        }
+
+        final Object result = invokeTarget(query, method, args);
+        // Keep fluent calls on the wrapper
+        return result == query ? proxy : result;
+      }
+
+    });
+  }
+
+  private Object wrapTransaction(final EntityTransaction transaction) {
+    return Proxy.newProxyInstance(EntityManager.class.getClassLoader(), new Class<?>[] {EntityTransaction.class}, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        default:
+          return invokeTarget(transaction, method, args);
+      }
+    });
+  }
+
+  /**
+   * Describe a query, so repeated ones share the same description.
+   * 
+   * @param definition Query string, name or criteria query the query has been created from.
+   * @param query Query created.
+   * @return Description of the query.
+   */
+  static String describe(final Object definition, final Query query) {
+    if (definition instanceof String) {
+      return (String) definition;
+    }
+    if (HIBERNATE_GET_QUERY_STRING != null && HIBERNATE_GET_QUERY_STRING.getDeclaringClass().isInstance(query)) {
+      try {
+        final Object queryString = HIBERNATE_GET_QUERY_STRING.invoke(query);
+        if (queryString != null) {
+          return NUMERIC_LITERAL.matcher(queryString.toString()).replaceAll("?");
+        }
+      } catch (final IllegalAccessException | InvocationTargetException e) {
+        // Fallback to the roots
+      }
+    }
+
+    final String kind;
+    final Collection<? extends Root<?>> roots;
+    if (definition instanceof AbstractQuery) {
+      kind = "criteria query of ";
+      roots = ((AbstractQuery<?>) definition).getRoots();
+    } else if (definition instanceof CriteriaUpdate) {
+      kind = "criteria update of ";
+      roots = Collections.singleton(((CriteriaUpdate<?>) definition).getRoot());
+    } else if (definition instanceof CriteriaDelete) {
+      kind = "criteria delete of ";
+      roots = Collections.singleton(((CriteriaDelete<?>) definition).getRoot());
+    } else {
+      return String.valueOf(definition);
+    }
+    return roots.stream().map(root -> root.getJavaType().getSimpleName()).sorted().collect(Collectors.joining(", ", kind, ""));
+  }
+
+  private Object invokeTarget(final Object target, final Method method, final Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (final InvocationTargetException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof PersistenceException && !(cause instanceof NoResultException)
+          && !(cause instanceof NonUniqueResultException)) {
+        failed = true;
+      }
+      throw cause;
+    }
+  }
+
+  private static Method hibernateGetQueryString() {
+    for (final String className : new String[] {"org.hibernate.query.Query", "org.hibernate.Query"}) {
+      try {
+        return Class.forName(className, false, InstrumentedEntityManager.class.getClassLoader()).getMethod("getQueryString");
+      } catch (final ClassNotFoundException | NoSuchMethodException e) {
+        // Try the next one
+      }
+    }
+    return null;
+  }
+
+}
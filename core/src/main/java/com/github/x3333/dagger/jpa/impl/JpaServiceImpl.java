@@ -14,19 +14,49 @@
 package com.github.x3333.dagger.jpa.impl;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.lang.Boolean.TRUE;
 
+import com.github.x3333.dagger.jpa.ConnectionCallback;
+import com.github.x3333.dagger.jpa.FetchPlan;
+import com.github.x3333.dagger.jpa.Isolation;
+import com.github.x3333.dagger.jpa.JpaProperties;
 import com.github.x3333.dagger.jpa.JpaService;
 import com.github.x3333.dagger.jpa.JpaWork;
+import com.github.x3333.dagger.jpa.TransactionStatus;
+import com.github.x3333.dagger.jpa.WorkStatistics;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.FlushModeType;
 import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +69,13 @@ import org.slf4j.LoggerFactory;
 @Singleton
 public final class JpaServiceImpl implements JpaService, JpaWork {
 
+  /**
+   * Classpath resource listing the managed classes, one per line. Generated by dagger-jpa-compiler.
+   */
+  public static final String MANAGED_CLASSES_INDEX = "META-INF/dagger-jpa/managed-classes";
+
+  private static final String HIBERNATE_LOADED_CLASSES = "hibernate.ejb.loaded.classes";
+
   private final Logger logger = LoggerFactory.getLogger(JpaServiceImpl.class);
 
   private final String persistenceUnitName;
@@ -47,6 +84,15 @@ public final class JpaServiceImpl implements JpaService, JpaWork {
   private final Object emFactoryLock = new Object();
   private volatile EntityManagerFactory emFactory;
   private final ThreadLocal<EntityManager> entityManager = new ThreadLocal<>();
+  private final ThreadLocal<Boolean> discard = new ThreadLocal<>();
+  private final ThreadLocal<FetchPlan> fetchPlan = new ThreadLocal<>();
+  private final ThreadLocal<EntityManager> fetchPlanEntityManager = new ThreadLocal<>();
+  private final ThreadLocal<IsolationRestore> isolationRestore = new ThreadLocal<>();
+  private final ConcurrentMap<FetchPlan, EntityGraph<?>> entityGraphs = new ConcurrentHashMap<>();
+  private final BlockingQueue<EntityManager> recycled;
+  private final boolean statistics;
+  private final boolean providerStatements;
+  private final TransactionCallbacks callbacks;
 
   @Inject
   public JpaServiceImpl(//
@@ -55,6 +101,14 @@ public final class JpaServiceImpl implements JpaService, JpaWork {
     logger.trace("Creating");
     this.persistenceUnitName = persistenceUnitName;
     this.persistenceProperties = persistenceProperties;
+
+    final int recyclePoolSize = JpaProperties.getInt(persistenceProperties, JpaProperties.RECYCLE_POOL_SIZE, 0);
+    this.recycled = recyclePoolSize > 0 ? new ArrayBlockingQueue<>(recyclePoolSize) : null;
+    this.statistics = JpaProperties.getBoolean(persistenceProperties, JpaProperties.STATISTICS, false);
+    this.providerStatements = JpaProperties.getBoolean(persistenceProperties, JpaProperties.STATISTICS_PROVIDER_STATEMENTS, false);
+    this.callbacks = new TransactionCallbacks(//
+        JpaProperties.getInt(persistenceProperties, JpaProperties.CALLBACK_THREADS, 1),
+        JpaProperties.getInt(persistenceProperties, JpaProperties.CALLBACK_QUEUE_SIZE, 1024));
   }
 
   @Override
@@ -65,7 +119,8 @@ public final class JpaServiceImpl implements JpaService, JpaWork {
         return;
       }
 
-      emFactory = Persistence.createEntityManagerFactory(persistenceUnitName, persistenceProperties);
+      emFactory = Persistence.createEntityManagerFactory(persistenceUnitName, providerProperties());
+      callbacks.start();
     }
   }
 
@@ -86,6 +141,9 @@ public final class JpaServiceImpl implements JpaService, JpaWork {
       checkState(emFactory.isOpen(), "Persistence service is already shut down!");
 
       try {
+        entityGraphs.clear();
+        callbacks.stop();
+        closeRecycled();
         emFactory.close();
       } finally {
         emFactory = null;
@@ -101,7 +159,8 @@ public final class JpaServiceImpl implements JpaService, JpaWork {
     checkState(hasBegun(), "EntityManager requested, but work hasn't been initiated. "
         + "You should call JpaService.being() and JpaService.end(), or use Transactional method interceptor.");
 
-    return entityManager.get();
+    final EntityManager em = fetchPlanEntityManager.get();
+    return em != null ? em : entityManager.get();
   }
 
   @Override
@@ -113,7 +172,15 @@ public final class JpaServiceImpl implements JpaService, JpaWork {
       return;
     }
 
-    entityManager.set(emFactory.createEntityManager());
+    // Left by a previous unit of work that didn't complete its transaction
+    callbacks.clear();
+
+    final EntityManager em = acquireEntityManager();
+    if (statistics || recycled != null) {
+      entityManager.set(InstrumentedEntityManager.wrap(em, statistics ? WorkStatistics.bind(providerStatements) : null));
+    } else {
+      entityManager.set(em);
+    }
   }
 
   @Override
@@ -121,15 +188,163 @@ public final class JpaServiceImpl implements JpaService, JpaWork {
     logger.trace("End work");
     checkHasStarted();
 
-    final EntityManager em = entityManager.get();
-    if (em == null) {
+    if (entityManager.get() == null) {
       return;
     }
 
+    final EntityManager em = InstrumentedEntityManager.unwrap(entityManager.get());
     try {
-      em.close();
+      restoreIsolation(em);
+      if (TRUE.equals(discard.get()) || !InstrumentedEntityManager.isRecyclable(entityManager.get()) || !recycle(em)) {
+        em.close();
+      }
     } finally {
       entityManager.remove();
+      discard.remove();
+      fetchPlan.remove();
+      fetchPlanEntityManager.remove();
+      isolationRestore.remove();
+      if (statistics) {
+        WorkStatistics.unbind();
+      }
+    }
+  }
+
+  @Override
+  public <T> T doWork(final ConnectionCallback<T> callback) {
+    return doWork(true, callback);
+  }
+
+  @Override
+  public <T> T doWork(final boolean flush, final ConnectionCallback<T> callback) {
+    logger.trace("Do JDBC work");
+    checkHasStarted();
+
+    checkState(hasBegun(), "JDBC work requested, but work hasn't been initiated. "
+        + "You should call JpaWork.begin() and JpaWork.end(), or use Transactional method interceptor.");
+
+    final EntityManager em = InstrumentedEntityManager.unwrap(entityManager.get());
+    if (flush && em.getTransaction().isActive()) {
+      em.flush();
+    }
+    return ConnectionAccess.doWork(em, callback);
+  }
+
+  @Override
+  public void afterCommit(final Runnable callback) {
+    afterCommit(false, callback);
+  }
+
+  @Override
+  public void afterCommit(final boolean async, final Runnable callback) {
+    afterCompletion(async, status -> {
+      if (status == TransactionStatus.COMMITTED) {
+        callback.run();
+      }
+    });
+  }
+
+  @Override
+  public void afterCompletion(final Consumer<TransactionStatus> callback) {
+    afterCompletion(false, callback);
+  }
+
+  @Override
+  public void afterCompletion(final boolean async, final Consumer<TransactionStatus> callback) {
+    checkHasStarted();
+
+    checkState(hasBegun(), "Transaction callback registered, but work hasn't been initiated. "
+        + "You should call JpaWork.begin() and JpaWork.end(), or use Transactional method interceptor.");
+
+    callbacks.add(async, callback);
+  }
+
+  @Override
+  public void complete(final TransactionStatus status) {
+    checkHasStarted();
+
+    if (hasBegun()) {
+      restoreIsolation(InstrumentedEntityManager.unwrap(entityManager.get()));
+    }
+    callbacks.complete(status);
+  }
+
+  @Override
+  public FetchPlan setFetchPlan(final FetchPlan plan) {
+    checkHasStarted();
+
+    checkState(hasBegun(), "Fetch plan set, but work hasn't been initiated. "
+        + "You should call JpaWork.begin() and JpaWork.end(), or use Transactional method interceptor.");
+
+    final FetchPlan previous = fetchPlan.get();
+    if (plan == null) {
+      fetchPlan.remove();
+      fetchPlanEntityManager.remove();
+    } else {
+      final EntityManager em = entityManager.get();
+      final EntityGraph<?> graph = entityGraphs.computeIfAbsent(plan, p -> FetchPlanEntityManager.buildGraph(em, p));
+      fetchPlan.set(plan);
+      fetchPlanEntityManager.set(FetchPlanEntityManager.wrap(em, plan.entity(), graph));
+    }
+    return previous;
+  }
+
+  @Override
+  public void setIsolation(final Isolation isolation) {
+    checkHasStarted();
+
+    checkState(hasBegun(), "Isolation set, but work hasn't been initiated. "
+        + "You should call JpaWork.begin() and JpaWork.end(), or use Transactional method interceptor.");
+
+    final EntityManager em = InstrumentedEntityManager.unwrap(entityManager.get());
+    checkState(em.getTransaction().isActive(), "Isolation set, but there is no active transaction.");
+    if (isolation == Isolation.DEFAULT) {
+      return;
+    }
+
+    final int level = isolation.level();
+    final IsolationRestore restore = ConnectionAccess.doWork(em, connection -> {
+      final int previous = connection.getTransactionIsolation();
+      if (previous == level) {
+        return null;
+      }
+      connection.setTransactionIsolation(level);
+      return new IsolationRestore(connection, previous);
+    });
+    // If set again, the first restore has the original level
+    if (restore == null || isolationRestore.get() != null) {
+      return;
+    }
+
+    isolationRestore.set(restore);
+    // Hibernate releases the connection on completion, restore it before. Others on complete() or end(), if it is still held.
+    ConnectionAccess.afterCompletion(em, () -> restoreIsolation(null));
+  }
+
+  @Override
+  public <T> void processInParallel(final Collection<T> items, final int partitionSize, final int parallelism,
+      final Consumer<List<T>> work) {
+    mapInParallel(items, partitionSize, parallelism, partition -> {
+      work.accept(partition);
+      return null;
+    });
+  }
+
+  @Override
+  public <T, R> List<R> mapInParallel(final Collection<T> items, final int partitionSize, final int parallelism,
+      final Function<List<T>, R> work) {
+    checkHasStarted();
+
+    return PartitionRunner.run(this, items, partitionSize, parallelism, work);
+  }
+
+  @Override
+  public void discard() {
+    logger.trace("Discard work");
+    checkHasStarted();
+
+    if (entityManager.get() != null) {
+      discard.set(true);
     }
   }
 
@@ -140,9 +355,163 @@ public final class JpaServiceImpl implements JpaService, JpaWork {
     return entityManager.get() != null;
   }
 
+  /**
+   * Number of idle EntityManagers kept for reuse, always 0 if recycling is disabled.
+   * 
+   * @return The number of idle EntityManagers.
+   */
+  public int getIdleEntityManagers() {
+    return recycled == null ? 0 : recycled.size();
+  }
+
   //
 
+  private Map<?, ?> providerProperties() {
+    if (!JpaProperties.getBoolean(persistenceProperties, JpaProperties.INDEX, false)) {
+      return persistenceProperties;
+    }
+
+    final List<Class<?>> managedClasses = loadManagedClassesIndex();
+    if (managedClasses.isEmpty()) {
+      logger.warn("No managed classes found in {}", MANAGED_CLASSES_INDEX);
+      return persistenceProperties;
+    }
+    logger.debug("{} managed classes found in {}", managedClasses.size(), MANAGED_CLASSES_INDEX);
+
+    final Map<Object, Object> properties = persistenceProperties == null ? new HashMap<>() : new HashMap<>(persistenceProperties);
+    properties.put(JpaProperties.getString(persistenceProperties, JpaProperties.INDEX_PROPERTY, HIBERNATE_LOADED_CLASSES),
+        managedClasses);
+    return properties;
+  }
+
+  private List<Class<?>> loadManagedClassesIndex() {
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    if (classLoader == null) {
+      classLoader = JpaServiceImpl.class.getClassLoader();
+    }
+
+    // An index may exist in many jars
+    final Set<String> classNames = new LinkedHashSet<>();
+    try {
+      final Enumeration<URL> indexes = classLoader.getResources(MANAGED_CLASSES_INDEX);
+      while (indexes.hasMoreElements()) {
+        try (BufferedReader reader =
+            new BufferedReader(new InputStreamReader(indexes.nextElement().openStream(), StandardCharsets.UTF_8))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+              classNames.add(line);
+            }
+          }
+        }
+      }
+    } catch (final IOException e) {
+      throw new PersistenceException("Could not read " + MANAGED_CLASSES_INDEX, e);
+    }
+
+    final List<Class<?>> managedClasses = new ArrayList<>(classNames.size());
+    for (final String className : classNames) {
+      try {
+        managedClasses.add(Class.forName(className, false, classLoader));
+      } catch (final ClassNotFoundException e) {
+        throw new PersistenceException("Class listed in " + MANAGED_CLASSES_INDEX + " not found, the index is outdated", e);
+      }
+    }
+    return managedClasses;
+  }
+
+  private EntityManager acquireEntityManager() {
+    if (recycled != null) {
+      EntityManager em;
+      while ((em = recycled.poll()) != null) {
+        if (em.isOpen()) {
+          logger.trace("Reusing recycled EntityManager");
+          return em;
+        }
+      }
+    }
+    return emFactory.createEntityManager();
+  }
+
+  /**
+   * Try to keep an EntityManager for a later unit of work. Only EntityManagers that are open, have no active transaction and could be
+   * cleared are kept.
+   *
+   * @param em EntityManager being released.
+   * @return true if the EntityManager has been kept, false if it must be closed.
+   */
+  private boolean recycle(final EntityManager em) {
+    if (recycled == null || !em.isOpen() || em.getTransaction().isActive()) {
+      return false;
+    }
+    try {
+      em.clear();
+      em.setFlushMode(FlushModeType.AUTO);
+    } catch (final RuntimeException e) {
+      logger.debug("EntityManager could not be reset, closing it", e);
+      return false;
+    }
+    return recycled.offer(em);
+  }
+
+  private void closeRecycled() {
+    if (recycled == null) {
+      return;
+    }
+    EntityManager em;
+    while ((em = recycled.poll()) != null) {
+      try {
+        if (em.isOpen()) {
+          em.close();
+        }
+      } catch (final RuntimeException e) {
+        logger.warn("Error closing recycled EntityManager", e);
+      }
+    }
+  }
+
+  /**
+   * Restore the isolation level changed by {@link #setIsolation(Isolation)}, if not restored already.
+   *
+   * @param em EntityManager whose connection must still be the changed one, null if called on completion.
+   */
+  private void restoreIsolation(@Nullable final EntityManager em) {
+    final IsolationRestore restore = isolationRestore.get();
+    if (restore == null) {
+      return;
+    }
+    isolationRestore.remove();
+
+    try {
+      if (em != null && ConnectionAccess.doWork(em, connection -> connection) != restore.connection) {
+        logger.warn("Connection released before its transaction isolation could be restored, it is up to the connection pool to reset it");
+        return;
+      }
+      if (restore.connection.getTransactionIsolation() != restore.isolation) {
+        restore.connection.setTransactionIsolation(restore.isolation);
+      }
+    } catch (final SQLException | RuntimeException e) {
+      logger.warn("Could not restore transaction isolation", e);
+    }
+  }
+
   private void checkHasStarted() {
     checkState(hasStarted(), "JpaService not started!");
   }
+
+  //
+
+  private static final class IsolationRestore {
+
+    final Connection connection;
+    final int isolation;
+
+    IsolationRestore(final Connection connection, final int isolation) {
+      this.connection = connection;
+      this.isolation = isolation;
+    }
+
+  }
+
 }
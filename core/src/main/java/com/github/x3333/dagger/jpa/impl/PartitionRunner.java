@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.github.x3333.dagger.jpa.JpaWork;
+import com.github.x3333.dagger.jpa.PartitionException;
+import com.github.x3333.dagger.jpa.TransactionStatus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
+
+import com.google.common.collect.Iterables;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs partitions of items in parallel, each one in its own unit of work and transaction.
+ * 
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+final class PartitionRunner {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PartitionRunner.class);
+
+  private static final AtomicInteger RUNS = new AtomicInteger();
+
+  //
+
+  private PartitionRunner() {}
+
+  //
+
+  static <T, R> List<R> run(final JpaWork jpaWork, final Collection<T> items, final int partitionSize, final int parallelism,
+      final Function<List<T>, R> work) {
+    checkArgument(partitionSize > 0, "Partition size must be positive");
+    checkArgument(parallelism > 0, "Parallelism must be positive");
+
+    final List<List<T>> partitions = new ArrayList<>();
+    for (final List<T> partition : Iterables.partition(items, partitionSize)) {
+      partitions.add(new ArrayList<>(partition));
+    }
+    if (partitions.isEmpty()) {
+      return new ArrayList<>();
+    }
+    LOGGER.trace("Running {} partitions, parallelism {}", partitions.size(), parallelism);
+
+    final String threadPrefix = "dagger-jpa-partition-" + RUNS.incrementAndGet() + "-";
+    final AtomicInteger threads = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, partitions.size()),
+        runnable -> new Thread(runnable, threadPrefix + threads.incrementAndGet()));
+    try {
+      final List<Future<R>> futures = new ArrayList<>(partitions.size());
+      for (final List<T> partition : partitions) {
+        futures.add(executor.submit(() -> runPartition(jpaWork, partition, work)));
+      }
+
+      final List<R> results = new ArrayList<>(partitions.size());
+      final List<List<?>> failedPartitions = new ArrayList<>();
+      final List<Throwable> failures = new ArrayList<>();
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          results.add(futures.get(i).get());
+        } catch (final ExecutionException e) {
+          results.add(null);
+          failedPartitions.add(partitions.get(i));
+          failures.add(e.getCause());
+        }
+      }
+
+      if (!failures.isEmpty()) {
+        throw new PartitionException(failures.size() + " of " + partitions.size() + " partitions failed", failedPartitions, failures);
+      }
+      return results;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PersistenceException("Interrupted while waiting for partitions", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  //
+
+  private static <T, R> R runPartition(final JpaWork jpaWork, final List<T> partition, final Function<List<T>, R> work) {
+    jpaWork.begin();
+    try {
+      final EntityTransaction transaction = jpaWork.getEntityManager().getTransaction();
+      transaction.begin();
+
+      final R result;
+      try {
+        result = work.apply(partition);
+      } catch (final RuntimeException | Error e) {
+        jpaWork.discard();
+        try {
+          if (transaction.isActive()) {
+            transaction.rollback();
+          }
+        } finally {
+          jpaWork.complete(TransactionStatus.ROLLED_BACK);
+        }
+        throw e;
+      }
+
+      try {
+        transaction.commit();
+      } catch (final RuntimeException e) {
+        jpaWork.discard();
+        jpaWork.complete(TransactionStatus.ROLLED_BACK);
+        throw e;
+      }
+      jpaWork.complete(TransactionStatus.COMMITTED);
+      return result;
+    } finally {
+      jpaWork.end();
+    }
+  }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa.impl;
+
+import com.github.x3333.dagger.jpa.TransactionStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Callbacks registered for the current thread's transaction, and the bounded executor running the asynchronous ones. They run as soon as
+ * the transaction is completed.
+ * 
+ * @author Tercio Gaudencio Filho (terciofilho [at] gmail.com)
+ */
+final class TransactionCallbacks {
+
+  private final Logger logger = LoggerFactory.getLogger(TransactionCallbacks.class);
+
+  private final int threads;
+  private final int queueSize;
+  private final ThreadLocal<List<Callback>> callbacks = new ThreadLocal<>();
+  private volatile ThreadPoolExecutor executor;
+
+  //
+
+  TransactionCallbacks(final int threads, final int queueSize) {
+    this.threads = threads;
+    this.queueSize = queueSize;
+  }
+
+  //
+
+  /**
+   * Create the executor. Its threads are only started when needed, and don't keep the JVM running.
+   */
+  void start() {
+    final AtomicInteger count = new AtomicInteger();
+    final ThreadFactory threadFactory = runnable -> {
+      final Thread thread = new Thread(runnable, "dagger-jpa-callback-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    // Not CallerRunsPolicy, it discards the callbacks once the executor is shut down
+    final RejectedExecutionHandler callerRuns = (runnable, rejectingExecutor) -> runnable.run();
+    executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory,
+        callerRuns);
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Shutdown the executor, callbacks already submitted still run. Asynchronous callbacks completed after it run in the calling thread.
+   */
+  void stop() {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  void add(final boolean async, final Consumer<TransactionStatus> callback) {
+    List<Callback> list = callbacks.get();
+    if (list == null) {
+      list = new ArrayList<>();
+      callbacks.set(list);
+    }
+    list.add(new Callback(async, callback));
+  }
+
+  /**
+   * Run the callbacks registered so far with the transaction outcome. They are forgotten first, so a callback starting a new transaction
+   * only runs its own callbacks.
+   */
+  void complete(final TransactionStatus status) {
+    final List<Callback> list = callbacks.get();
+    if (list == null) {
+      return;
+    }
+    callbacks.remove();
+
+    logger.trace("Running {} callbacks", list.size());
+    for (final Callback callback : list) {
+      final ThreadPoolExecutor currentExecutor = executor;
+      if (callback.async && currentExecutor != null) {
+        currentExecutor.execute(() -> run(callback, status));
+      } else {
+        run(callback, status);
+      }
+    }
+  }
+
+  /**
+   * Forget the callbacks of a transaction that hasn't been completed.
+   */
+  void clear() {
+    final List<Callback> list = callbacks.get();
+    if (list != null) {
+      logger.warn("{} transaction callbacks of a previous unit of work discarded, JpaWork.complete() has not been called", list.size());
+      callbacks.remove();
+    }
+  }
+
+  //
+
+  private void run(final Callback callback, final TransactionStatus status) {
+    try {
+      callback.callback.accept(status);
+    } catch (final RuntimeException e) {
+      logger.error("Transaction callback failed", e);
+    }
+  }
+
+  //
+
+  private static final class Callback {
+
+    final boolean async;
+    final Consumer<TransactionStatus> callback;
+
+    Callback(final boolean async, final Consumer<TransactionStatus> callback) {
+      this.async = async;
+      this.callback = callback;
+    }
+
+  }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+  @Test
+  public void backOffOncePerWindowWhenSlow() throws InterruptedException {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 4, 1000, -1, 10);
+    runSaturated(limiter, 50, 50, 50, 50);
+
+    assertEquals(3, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  public void mixedLatenciesWithoutSaturationKeepMaximum() throws InterruptedException {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 30, 1000, -1, 0);
+    for (int i = 0; i < 300; i++) {
+      limiter.acquire();
+      limiter.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(i % 3 == 0 ? 200 : 1));
+    }
+
+    assertEquals(30, limiter.getLimit());
+  }
+
+  @Test
+  public void slowMethodsDontBackOff() throws InterruptedException {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 4, 1000, -1, 0);
+    for (int i = 0; i < 25; i++) {
+      runSaturated(limiter, 1, 200, 1, 200);
+    }
+
+    assertEquals(4, limiter.getLimit());
+  }
+
+  @Test
+  public void backOffWhenAllSlowerThanBaseline() throws InterruptedException {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 4, 1000, -1, 0);
+    runSaturated(limiter, 1, 200, 1, 200);
+    runSaturated(limiter, 50, 200, 50, 200);
+
+    assertEquals(3, limiter.getLimit());
+  }
+
+  @Test
+  public void growBackToMaximum() throws InterruptedException {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 4, 1000, -1, 10);
+    runSaturated(limiter, 50, 50, 50, 50);
+
+    for (int i = 0; i < 10; i++) {
+      limiter.release(limiter.acquire());
+    }
+    assertEquals(4, limiter.getLimit());
+  }
+
+  @Test
+  public void rejectOnTimeout() throws InterruptedException {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 20, -1, 0);
+    limiter.acquire();
+    try {
+      limiter.acquire();
+      fail("Expected TransactionRejectedException");
+    } catch (final TransactionRejectedException e) {
+      // Expected
+    }
+    assertEquals(0, limiter.getWaiting());
+    assertEquals(1, limiter.getInFlight());
+  }
+
+  @Test
+  public void rejectWhenTooManyWaiting() throws InterruptedException {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 10_000, 0, 0);
+    limiter.acquire();
+    try {
+      limiter.acquire();
+      fail("Expected TransactionRejectedException");
+    } catch (final TransactionRejectedException e) {
+      // Expected
+    }
+    assertEquals(0, limiter.getWaiting());
+  }
+
+  @Test
+  public void serveInArrivalOrder() throws InterruptedException {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 10_000, -1, 0);
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+    final List<Thread> threads = new ArrayList<>();
+
+    final long start = limiter.acquire();
+    for (int i = 0; i < 5; i++) {
+      final int index = i;
+      final Thread thread = new Thread(() -> {
+        try {
+          final long threadStart = limiter.acquire();
+          order.add(index);
+          limiter.release(threadStart);
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      thread.start();
+      threads.add(thread);
+      while (limiter.getWaiting() <= i) {
+        Thread.sleep(1);
+      }
+    }
+    limiter.release(start);
+
+    for (final Thread thread : threads) {
+      thread.join(10_000);
+    }
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  public void freedSlotGoesToWaiter() throws InterruptedException {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 10_000, -1, 0);
+    final List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    final long start = limiter.acquire();
+    final Thread waiter = new Thread(() -> {
+      try {
+        final long waiterStart = limiter.acquire();
+        order.add("waiter");
+        limiter.release(waiterStart);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    waiter.start();
+    while (limiter.getWaiting() == 0) {
+      Thread.sleep(1);
+    }
+
+    // Arriving right after the release, before the waiter wakes up
+    limiter.release(start);
+    limiter.release(limiter.acquire());
+    order.add("arriving");
+
+    waiter.join(10_000);
+    assertEquals(Arrays.asList("waiter", "arriving"), order);
+  }
+
+  //
+
+  /**
+   * Take every slot, then release them with the given latencies.
+   */
+  private static void runSaturated(final ConcurrencyLimiter limiter, final long... latenciesMillis) throws InterruptedException {
+    for (int i = 0; i < latenciesMillis.length; i++) {
+      limiter.acquire();
+    }
+    for (final long latency : latenciesMillis) {
+      limiter.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(latency));
+    }
+  }
+
+}
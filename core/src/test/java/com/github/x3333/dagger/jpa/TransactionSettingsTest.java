@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class TransactionSettingsTest {
+
+  private JpaWork work;
+  private EntityManager em;
+  private EntityManagerFactory emFactory;
+  private Transactional transactional;
+
+  @Before
+  public void setUp() {
+    work = mock(JpaWork.class);
+    em = mock(EntityManager.class);
+    emFactory = mock(EntityManagerFactory.class);
+    when(em.getEntityManagerFactory()).thenReturn(emFactory);
+    when(em.getProperties()).thenReturn(Collections.emptyMap());
+    when(emFactory.getProperties()).thenReturn(Collections.emptyMap());
+    transactional = mock(Transactional.class);
+    when(transactional.isolation()).thenReturn(Isolation.DEFAULT);
+    when(transactional.lockTimeoutMillis()).thenReturn(500);
+  }
+
+  @Test
+  public void restoreEntityManagerLockTimeout() {
+    when(em.getProperties()).thenReturn(Collections.singletonMap(TransactionSettings.LOCK_TIMEOUT, 1000));
+
+    TransactionSettings.apply(work, em, transactional).restore();
+
+    assertLockTimeout(1000);
+  }
+
+  @Test
+  public void restoreFactoryLockTimeout() {
+    when(emFactory.getProperties()).thenReturn(Collections.singletonMap(TransactionSettings.LOCK_TIMEOUT, 2000));
+
+    TransactionSettings.apply(work, em, transactional).restore();
+
+    assertLockTimeout(2000);
+  }
+
+  @Test
+  public void restoreDefaultLockTimeout() {
+    TransactionSettings.apply(work, em, transactional).restore();
+
+    assertLockTimeout(-1);
+  }
+
+  //
+
+  private void assertLockTimeout(final Object restored) {
+    final InOrder order = inOrder(em);
+    order.verify(em).setProperty(TransactionSettings.LOCK_TIMEOUT, 500);
+    order.verify(em).setProperty(TransactionSettings.LOCK_TIMEOUT, restored);
+    verify(work).setIsolation(any(Isolation.class));
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class WorkStatisticsTest {
+
+  @After
+  public void unbind() {
+    WorkStatistics.unbind();
+  }
+
+  @Test
+  public void bindToCurrentThread() {
+    final WorkStatistics statistics = WorkStatistics.bind(false);
+    assertSame(statistics, WorkStatistics.current());
+
+    WorkStatistics.unbind();
+    assertNull(WorkStatistics.current());
+  }
+
+  @Test
+  public void totalCountsQueriesAndLoads() {
+    final WorkStatistics statistics = WorkStatistics.bind(false);
+    statistics.recordQuery("FROM SomeEntity");
+    statistics.recordEntityLoad(Object.class);
+    statistics.recordCollectionLoad("SomeEntity.children");
+    statistics.recordStatement("select id from SomeEntity");
+
+    assertEquals(3, statistics.getTotal());
+  }
+
+  @Test
+  public void totalCountsProviderStatements() {
+    final WorkStatistics statistics = WorkStatistics.bind(true);
+    statistics.recordQuery("FROM SomeEntity");
+    assertEquals(0, statistics.getTotal());
+
+    statistics.recordStatement("select id from SomeEntity");
+    statistics.recordStatement("select id from SomeEntity");
+    assertEquals(2, statistics.getTotal());
+  }
+
+  @Test
+  public void providerStatementsDontLeakToOtherUnits() {
+    WorkStatistics.bind(true).recordStatement("select id from SomeEntity");
+
+    final WorkStatistics statistics = WorkStatistics.bind(false);
+    statistics.recordQuery("FROM SomeEntity");
+    assertEquals(1, statistics.getTotal());
+  }
+
+  @Test
+  public void repetitions() {
+    final WorkStatistics statistics = WorkStatistics.bind(false);
+    statistics.recordQuery("FROM SomeEntity");
+    statistics.recordQuery("FROM SomeEntity");
+    assertEquals(Collections.singletonMap("FROM SomeEntity", 2), statistics.getRepetitions());
+
+    statistics.clearRepetitions();
+    assertEquals(Collections.emptyMap(), statistics.getRepetitions());
+    assertEquals(2, statistics.getQueries());
+  }
+
+  @Test
+  public void repetitionsOfProviderStatements() {
+    final WorkStatistics statistics = WorkStatistics.bind(true);
+    statistics.recordQuery("FROM SomeEntity");
+    statistics.recordStatement("select id from SomeEntity");
+    statistics.recordQuery("FROM SomeEntity");
+    statistics.recordStatement("select id from SomeEntity");
+    assertEquals(Collections.singletonMap("select id from SomeEntity", 2), statistics.getRepetitions());
+  }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FetchPlanEntityManagerTest {
+
+  private EntityManager target;
+  private EntityGraph<?> graph;
+  private TypedQuery<?> query;
+  private EntityManager em;
+
+  @Before
+  public void setUp() {
+    target = mock(EntityManager.class);
+    graph = mock(EntityGraph.class);
+    query = mock(TypedQuery.class);
+    when(query.getHints()).thenReturn(Collections.emptyMap());
+    em = FetchPlanEntityManager.wrap(target, String.class, graph);
+  }
+
+  @Test
+  public void findWithLoadGraph() {
+    em.find(String.class, 1);
+
+    final Map<String, Object> properties = Collections.singletonMap(FetchPlanEntityManager.LOAD_GRAPH, graph);
+    verify(target).find(String.class, 1, properties);
+  }
+
+  @Test
+  public void jpqlQueryWithLoadGraph() {
+    when(target.createQuery("FROM String", String.class)).thenReturn(cast(query));
+
+    em.createQuery("FROM String", String.class);
+
+    verify(query).setHint(FetchPlanEntityManager.LOAD_GRAPH, graph);
+  }
+
+  @Test
+  public void otherEntityQueryUntouched() {
+    when(target.createQuery("FROM Integer", Integer.class)).thenReturn(cast(query));
+
+    em.createQuery("FROM Integer", Integer.class);
+
+    verify(query, never()).setHint(anyString(), any());
+  }
+
+  @Test
+  public void nativeQueryUntouched() {
+    // Some providers return a TypedQuery for native queries
+    when(target.createNativeQuery("SELECT * FROM String", String.class)).thenReturn(query);
+
+    em.createNativeQuery("SELECT * FROM String", String.class);
+
+    verify(query, never()).setHint(anyString(), any());
+  }
+
+  @Test
+  public void existingGraphHintKept() {
+    when(query.getHints()).thenReturn(Collections.singletonMap(FetchPlanEntityManager.FETCH_GRAPH, graph));
+    when(target.createNamedQuery("String.all", String.class)).thenReturn(cast(query));
+
+    em.createNamedQuery("String.all", String.class);
+
+    verify(query, never()).setHint(anyString(), any());
+  }
+
+  @Test
+  public void rejectedHintIgnored() {
+    doThrow(new IllegalStateException("Native query")).when(query).setHint(FetchPlanEntityManager.LOAD_GRAPH, graph);
+    when(target.createNamedQuery("String.native", String.class)).thenReturn(cast(query));
+
+    em.createNamedQuery("String.native", String.class);
+  }
+
+  //
+
+  @SuppressWarnings("unchecked")
+  private static <T> TypedQuery<T> cast(final TypedQuery<?> query) {
+    return (TypedQuery<T>) query;
+  }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.x3333.dagger.jpa.WorkStatistics;
+
+import java.util.Collections;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InstrumentedEntityManagerTest {
+
+  private EntityManager target;
+  private WorkStatistics statistics;
+  private EntityManager em;
+
+  @Before
+  public void setUp() {
+    target = mock(EntityManager.class);
+    statistics = WorkStatistics.bind(false);
+    em = InstrumentedEntityManager.wrap(target, statistics);
+  }
+
+  @After
+  public void unbind() {
+    WorkStatistics.unbind();
+  }
+
+  @Test
+  public void repeatedJpqlQuery() {
+    when(target.createQuery("FROM String", String.class)).thenReturn(cast(mock(TypedQuery.class)));
+
+    em.createQuery("FROM String", String.class).getResultList();
+    em.createQuery("FROM String", String.class).getResultList();
+
+    assertEquals(Collections.singletonMap("FROM String", 2), statistics.getRepetitions());
+  }
+
+  @Test
+  public void repeatedCriteriaQuery() {
+    // Each one a new instance, as built in a loop
+    final CriteriaQuery<String> first = criteriaQuery();
+    final CriteriaQuery<String> second = criteriaQuery();
+    when(target.createQuery(first)).thenReturn(cast(mock(TypedQuery.class)));
+    when(target.createQuery(second)).thenReturn(cast(mock(TypedQuery.class)));
+
+    em.createQuery(first).getResultList();
+    em.createQuery(second).getResultList();
+
+    assertEquals(Collections.singletonMap("criteria query of String", 2), statistics.getRepetitions());
+  }
+
+  //
+
+  private static CriteriaQuery<String> criteriaQuery() {
+    final Root<String> root = cast(mock(Root.class));
+    doReturn(String.class).when(root).getJavaType();
+    final CriteriaQuery<String> query = cast(mock(CriteriaQuery.class));
+    final Set<Root<?>> roots = Collections.singleton(root);
+    when(query.getRoots()).thenReturn(roots);
+    return query;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T cast(final Object object) {
+    return (T) object;
+  }
+
+}
@@ -0,0 +1,216 @@
+package com.github.x3333.dagger.jpa.tester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.DriverManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.github.x3333.dagger.jpa.JpaService;
+import com.github.x3333.dagger.jpa.JpaWork;
+import com.github.x3333.dagger.jpa.StatementBudgetExceededException;
+import com.github.x3333.dagger.jpa.StatementReport;
+import com.github.x3333.dagger.jpa.StatementReport.MethodStatistics;
+import com.github.x3333.dagger.jpa.TransactionRejectedException;
+import com.github.x3333.dagger.jpa.impl.JpaServiceImpl;
+import com.github.x3333.dagger.jpa.tester.TransactionalClass.MyException;
+
+/**
+ * Tests of the optional features, {@link TransacionalTest} runs with the default settings.
+ */
+public class FeaturesTest {
+
+	private static JpaService jpaService;
+	private static JpaWork jpaWork;
+	private static JpaServiceImpl jpaServiceImpl;
+	private static StatementReport statementReport;
+	private static TransactionalInterface transactional;
+	private static OtherTransactionalInterface otherTransactional;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+		DriverManager.getConnection("jdbc:derby:memory:dagger-jpa;create=true").close();
+
+		FeaturesTestComponent component = DaggerFeaturesTestComponent.builder().build();
+
+		jpaService = component.jpaService();
+		jpaWork = component.jpaWork();
+		jpaServiceImpl = component.jpaServiceImpl();
+		statementReport = component.statementReport();
+		jpaService.start();
+
+		transactional = component.transactional();
+		otherTransactional = component.otherTransactional();
+	}
+
+	@AfterClass
+	public static void stop() {
+		jpaService.stop();
+	}
+
+	@Test
+	public void recycledEntityManager() {
+		cleanup();
+		assertEquals(1, jpaServiceImpl.getIdleEntityManagers());
+
+		jpaWork.begin();
+		try {
+			// The idle EntityManager is reused
+			assertEquals(0, jpaServiceImpl.getIdleEntityManagers());
+		} finally {
+			jpaWork.end();
+		}
+		assertEquals(1, jpaServiceImpl.getIdleEntityManagers());
+
+		// A failed unit of work is not recycled
+		try {
+			transactional.transactionalExceptionRollback();
+			fail("Should have thrown a MyException.");
+		} catch (MyException e) {
+		}
+		assertEquals(0, jpaServiceImpl.getIdleEntityManagers());
+
+		// Neither is one whose properties have been changed
+		transactional.transactionalCommit();
+		assertEquals(1, jpaServiceImpl.getIdleEntityManagers());
+		jpaWork.begin();
+		try {
+			jpaWork.getEntityManager().setProperty("javax.persistence.query.timeout", 1000);
+		} finally {
+			jpaWork.end();
+		}
+		assertEquals(0, jpaServiceImpl.getIdleEntityManagers());
+
+		// Neither is one that failed, even if the error has been handled
+		transactional.transactionalCommit();
+		assertEquals(1, jpaServiceImpl.getIdleEntityManagers());
+		jpaWork.begin();
+		try {
+			EntityManager em = jpaWork.getEntityManager();
+			em.getTransaction().begin();
+			try {
+				em.createNativeQuery("SELECT * FROM MissingTable").getResultList();
+				fail("Should have thrown a PersistenceException.");
+			} catch (PersistenceException e) {
+				em.getTransaction().rollback();
+			}
+		} finally {
+			jpaWork.end();
+		}
+		assertEquals(0, jpaServiceImpl.getIdleEntityManagers());
+	}
+
+	@Test
+	public void statementBudget() {
+		cleanup();
+		statementReport.reset();
+		try {
+			transactional.transactionalOverBudget();
+			fail("Should have thrown a StatementBudgetExceededException.");
+		} catch (StatementBudgetExceededException e) {
+		}
+		assertEquals(0l, count());
+
+		MethodStatistics statistics = methodStatistics("transactionalOverBudget");
+		assertEquals(1, statistics.getInvocations());
+		assertEquals(1, statistics.getBudgetExceeded());
+		assertTrue(statistics.getMaxStatements() > 2);
+		assertEquals(3, methodStatistics("transactionalCommit").getInvocations());
+		assertTrue(statementReport.summary().contains("TransactionalClass.transactionalOverBudget: invocations=1,"));
+
+		// Methods with equal annotations are told apart
+		transactional.transactionalDefaultIsolation();
+		assertEquals(1, methodStatistics("transactionalDefaultIsolation").getInvocations());
+		assertEquals(3, methodStatistics("transactionalCommit").getInvocations());
+	}
+
+	@Test
+	public void statementBudgetCountsCommitFlush() {
+		cleanup();
+		int id = transactional.transactionalCommit();
+		statementReport.reset();
+		// The select fits, the delete is only sent when the changes are flushed
+		try {
+			transactional.transactionalDelete(id);
+			fail("Should have thrown a StatementBudgetExceededException.");
+		} catch (StatementBudgetExceededException e) {
+		}
+		assertEquals(1l, count());
+		assertEquals(2, methodStatistics("transactionalDelete").getMaxStatements());
+	}
+
+	@Test
+	public void repeatedStatements() {
+		statementReport.reset();
+		transactional.transactionalRepeatedQuery(3);
+		assertEquals(0, methodStatistics("transactionalRepeatedQuery").getRepetitions());
+
+		transactional.transactionalRepeatedQuery(4);
+		assertEquals(1, methodStatistics("transactionalRepeatedQuery").getRepetitions());
+	}
+
+	@Test
+	public void callbackCallsOtherInterceptor() {
+		cleanup();
+		// The callback runs holding the only slot, the transaction it starts through another interceptor must not wait for one
+		otherTransactional.transactionalCallbackCalls(transactional::transactionalCommit);
+		assertEquals(1, count());
+	}
+
+	@Test
+	public void interruptedWaitingForSlot() {
+		cleanup();
+		Thread.currentThread().interrupt();
+		try {
+			transactional.transactionalCommit();
+			fail("Should have thrown a TransactionRejectedException.");
+		} catch (TransactionRejectedException e) {
+			assertTrue(e.getCause() instanceof InterruptedException);
+		} finally {
+			// Still interrupted, cleared for the next tests
+			assertTrue(Thread.interrupted());
+		}
+		assertEquals(0, count());
+	}
+
+	private static MethodStatistics methodStatistics(String method) {
+		MethodStatistics statistics = statementReport.getMethods().get("TransactionalClass." + method);
+		if (statistics == null) {
+			throw new AssertionError("No statistics for " + method + ", found " + statementReport.getMethods().keySet());
+		}
+		return statistics;
+	}
+
+	private long count() {
+		jpaWork.begin();
+		try {
+			EntityManager em = jpaWork.getEntityManager();
+			return em.createQuery("SELECT COUNT(e.id) FROM SomeEntity e", Long.class).getSingleResult();
+		} finally {
+			jpaWork.end();
+		}
+	}
+
+	/**
+	 * Cleanup the database to start a test
+	 */
+	private void cleanup() {
+		jpaWork.begin();
+		EntityManager em = jpaWork.getEntityManager();
+		em.getTransaction().begin();
+		Query query = em.createQuery("DELETE FROM SomeEntity");
+		query.executeUpdate();
+		em.getTransaction().commit();
+		jpaWork.end();
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+package com.github.x3333.dagger.jpa.tester;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.github.x3333.dagger.jpa.JpaProperties;
+
+import dagger.Binds;
+import dagger.Module;
+import dagger.Provides;
+
+/**
+ * Same as {@link TestModule}, with the optional features enabled.
+ */
+@Module
+public abstract class FeaturesTestModule {
+
+	@Binds
+	@Singleton
+	abstract TransactionalInterface providesTransac(TransactionalClass impl);
+
+	@Binds
+	@Singleton
+	abstract OtherTransactionalInterface providesOtherTransac(OtherTransactionalClass impl);
+
+	@Provides
+	@Named("jpa.unitname")
+	static String providesJpaUnitName() {
+		return "dagger-jpa";
+	}
+
+	@Provides
+	@Nullable
+	@Named("jpa.properties")
+	static Map<?, ?> providesJpaProperties() {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put(JpaProperties.RECYCLE_POOL_SIZE, 1);
+		properties.put(JpaProperties.STATISTICS, true);
+		properties.put(JpaProperties.STATISTICS_FAIL_ON_BUDGET, true);
+		properties.put(JpaProperties.STATISTICS_REPETITION_THRESHOLD, 3);
+		properties.put(JpaProperties.STATISTICS_PROVIDER_STATEMENTS, true);
+		properties.put("hibernate.session_factory.statement_inspector", CountingStatementInspector.class.getName());
+		properties.put(JpaProperties.LIMITER, true);
+		properties.put(JpaProperties.LIMITER + ".maxConcurrency", 1);
+		return properties;
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.github.x3333.dagger.jpa.tester;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.x3333.dagger.jpa.JpaProperties;
+import com.github.x3333.dagger.jpa.impl.JpaServiceImpl;
+import com.github.x3333.dagger.jpa.tester.domain.OtherEntity;
+import com.github.x3333.dagger.jpa.tester.domain.SomeEntity;
+
+/**
+ * Tests of the managed classes index. The "dagger-jpa-index" unit lists no classes and excludes the unlisted ones, so it only knows the
+ * indexed classes.
+ */
+public class IndexTest {
+
+	private static final Map<String, Object> PROPERTIES = Collections.singletonMap(JpaProperties.INDEX, true);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void start() throws Exception {
+		Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+		DriverManager.getConnection("jdbc:derby:memory:dagger-jpa;create=true").close();
+	}
+
+	@Test
+	public void generatedIndex() {
+		// Generated by dagger-jpa-compiler when compiling the domain
+		JpaServiceImpl jpaService = new JpaServiceImpl("dagger-jpa-index", PROPERTIES);
+		jpaService.start();
+		try {
+			assertManaged(jpaService, SomeEntity.class, OtherEntity.class);
+		} finally {
+			jpaService.stop();
+		}
+	}
+
+	@Test
+	public void severalIndexes() throws Exception {
+		// SomeEntity references OtherEntity, the unit fails to start if an index is missed
+		ClassLoader classLoader = new IndexClassLoader(index(SomeEntity.class.getName()), index(OtherEntity.class.getName()));
+		JpaServiceImpl jpaService = new JpaServiceImpl("dagger-jpa-index", PROPERTIES);
+		runWith(classLoader, jpaService::start);
+		try {
+			assertManaged(jpaService, SomeEntity.class, OtherEntity.class);
+		} finally {
+			jpaService.stop();
+		}
+	}
+
+	@Test
+	public void outdatedIndex() throws Exception {
+		ClassLoader classLoader = new IndexClassLoader(index(SomeEntity.class.getName(), "com.github.x3333.dagger.jpa.tester.domain.Removed"));
+		JpaServiceImpl jpaService = new JpaServiceImpl("dagger-jpa-index", PROPERTIES);
+		try {
+			runWith(classLoader, jpaService::start);
+			fail("Should have thrown a PersistenceException.");
+		} catch (PersistenceException e) {
+			assertTrue(e.getMessage().contains("the index is outdated"));
+			assertTrue(e.getCause() instanceof ClassNotFoundException);
+		}
+		assertFalse(jpaService.hasStarted());
+	}
+
+	private static void assertManaged(JpaServiceImpl jpaService, Class<?>... classes) {
+		jpaService.begin();
+		try {
+			EntityManager em = jpaService.getEntityManager();
+			for (Class<?> type : classes) {
+				assertNotNull(em.getMetamodel().entity(type));
+			}
+			em.createQuery("SELECT COUNT(e.id) FROM SomeEntity e", Long.class).getSingleResult();
+		} finally {
+			jpaService.end();
+		}
+	}
+
+	private URL index(String... classNames) throws IOException {
+		File root = folder.newFolder();
+		File index = new File(root, JpaServiceImpl.MANAGED_CLASSES_INDEX);
+		index.getParentFile().mkdirs();
+		Files.write(index.toPath(), Arrays.asList(classNames), StandardCharsets.UTF_8);
+		return root.toURI().toURL();
+	}
+
+	private static void runWith(ClassLoader classLoader, Runnable runnable) {
+		Thread thread = Thread.currentThread();
+		ClassLoader previous = thread.getContextClassLoader();
+		thread.setContextClassLoader(classLoader);
+		try {
+			runnable.run();
+		} finally {
+			thread.setContextClassLoader(previous);
+		}
+	}
+
+	/**
+	 * Only sees its own indexes, not the generated one.
+	 */
+	private static final class IndexClassLoader extends URLClassLoader {
+
+		IndexClassLoader(URL... urls) {
+			super(urls, IndexTest.class.getClassLoader());
+		}
+
+		@Override
+		public Enumeration<URL> getResources(String name) throws IOException {
+			return JpaServiceImpl.MANAGED_CLASSES_INDEX.equals(name) ? findResources(name) : super.getResources(name);
+		}
+
+	}
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 Tercio Gaudencio Filho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.github.x3333.dagger.jpa.tester;
+
+import com.github.x3333.dagger.jpa.JpaWork;
+import com.github.x3333.dagger.jpa.Transactional;
+
+/**
+ * Intercepted by its own interceptor instance, apart from {@link TransactionalClass}.
+ */
+public abstract class OtherTransactionalClass implements OtherTransactionalInterface {
+
+	private JpaWork work;
+
+	public OtherTransactionalClass(JpaWork work) {
+		this.work = work;
+	}
+
+	@Override
+	@Transactional
+	public void transactionalCallbackCalls(Runnable callback) {
+		work.afterCommit(callback);
+	}
+
+}
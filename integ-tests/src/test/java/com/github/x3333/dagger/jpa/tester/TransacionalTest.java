@@ -1,12 +1,21 @@
 package com.github.x3333.dagger.jpa.tester;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Persistence;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
@@ -16,6 +25,8 @@ import org.junit.Test;
 
 import com.github.x3333.dagger.jpa.JpaService;
 import com.github.x3333.dagger.jpa.JpaWork;
+import com.github.x3333.dagger.jpa.PartitionException;
+import com.github.x3333.dagger.jpa.TransactionStatus;
 import com.github.x3333.dagger.jpa.tester.TransactionalClass.MyException;
 import com.github.x3333.dagger.jpa.tester.domain.SomeEntity;
 
@@ -122,6 +133,178 @@ public class TransacionalTest {
 		}
 	}
 
+	@Test
+	public void transactionalCallbacks() throws MyException {
+		cleanup();
+		List<TransactionStatus> statuses = new ArrayList<>();
+		transactional.transactionalCallback(statuses::add, false);
+		assertEquals(Arrays.asList(TransactionStatus.COMMITTED), statuses);
+
+		statuses.clear();
+		try {
+			transactional.transactionalCallback(statuses::add, true);
+			fail("Should have thrown a MyException.");
+		} catch (MyException e) {
+		}
+		assertEquals(Arrays.asList(TransactionStatus.ROLLED_BACK), statuses);
+	}
+
+	@Test
+	public void transactionalCallbacksInCallerWork() throws MyException {
+		cleanup();
+		List<TransactionStatus> statuses = new ArrayList<>();
+		jpaWork.begin();
+		try {
+			// Run once the transaction is over, not when the caller ends the work
+			transactional.transactionalCallback(statuses::add, false);
+			assertEquals(Arrays.asList(TransactionStatus.COMMITTED), statuses);
+			assertTrue(jpaWork.hasBegun());
+		} finally {
+			jpaWork.end();
+		}
+		assertEquals(1, statuses.size());
+	}
+
+	@Test
+	public void transactionalCallbackCallsTransactional() {
+		cleanup();
+		List<Boolean> workBegun = new ArrayList<>();
+		transactional.transactionalCallbackCallsTransactional(workBegun);
+		// Callbacks run once the unit of work is over, each one in its own
+		assertEquals(Arrays.asList(false, false), workBegun);
+		assertEquals(2l, count());
+		assertFalse(jpaWork.hasBegun());
+	}
+
+	@Test
+	public void transactionalFetchPlan() {
+		cleanup();
+		int id = transactional.transactionalCommitWithOther();
+
+		// Lazy without a fetch plan
+		jpaWork.begin();
+		try {
+			assertFalse(isOtherLoaded(jpaWork.getEntityManager().find(SomeEntity.class, id)));
+		} finally {
+			jpaWork.end();
+		}
+
+		SomeEntity entity = transactional.transactionalFind(id);
+		assertEquals((Integer) id, entity.getId());
+		assertTrue(isOtherLoaded(entity));
+
+		List<SomeEntity> entities = transactional.transactionalQuery();
+		assertEquals(1, entities.size());
+		assertTrue(isOtherLoaded(entities.get(0)));
+
+		// Named queries may be native ones, which don't take entity graphs
+		assertEquals(1, transactional.transactionalNamedNativeQuery().size());
+	}
+
+	private static boolean isOtherLoaded(SomeEntity entity) {
+		return Persistence.getPersistenceUtil().isLoaded(entity, "other");
+	}
+
+	@Test
+	public void transactionalIsolation() {
+		assertEquals(Connection.TRANSACTION_SERIALIZABLE, transactional.transactionalIsolation());
+
+		// The connection goes back to the pool with its original isolation, whichever one the next transactions get
+		for (int i = 0; i < 25; i++) {
+			assertEquals(Connection.TRANSACTION_READ_COMMITTED, transactional.transactionalDefaultIsolation());
+		}
+	}
+
+	@Test
+	public void lockTimeoutRestoredInCallerWork() {
+		jpaWork.begin();
+		try {
+			EntityManager em = jpaWork.getEntityManager();
+			Object lockTimeout = em.getProperties().get("javax.persistence.lock.timeout");
+			transactional.transactionalIsolation();
+			// The next transactions of the work don't get the method timeout
+			assertEquals(lockTimeout, em.getProperties().get("javax.persistence.lock.timeout"));
+		} finally {
+			jpaWork.end();
+		}
+	}
+
+	@Test
+	public void doWorkSeesFlushedChanges() {
+		cleanup();
+		jpaWork.begin();
+		try {
+			EntityManager em = jpaWork.getEntityManager();
+			em.getTransaction().begin();
+			em.persist(new SomeEntity());
+			long count = jpaWork.doWork(connection -> {
+				try (Statement statement = connection.createStatement();
+						ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM SomeEntity")) {
+					resultSet.next();
+					return resultSet.getLong(1);
+				}
+			});
+			assertEquals(1l, count);
+			em.getTransaction().rollback();
+		} finally {
+			jpaWork.end();
+		}
+	}
+
+	@Test
+	public void mapInParallel() {
+		cleanup();
+		List<Integer> items = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+		List<Integer> sizes = jpaWork.mapInParallel(items, 3, 2, partition -> {
+			for (int i = 0; i < partition.size(); i++) {
+				jpaWork.getEntityManager().persist(new SomeEntity());
+			}
+			return partition.size();
+		});
+		assertEquals(Arrays.asList(3, 3, 3, 1), sizes);
+
+		jpaWork.begin();
+		try {
+			EntityManager em = jpaWork.getEntityManager();
+			TypedQuery<Long> query = em.createQuery("SELECT COUNT(e.id) FROM SomeEntity e", Long.class);
+			assertEquals((Long) 10l, query.getSingleResult());
+		} finally {
+			jpaWork.end();
+		}
+	}
+
+	@Test
+	public void processInParallelFailure() {
+		cleanup();
+		List<Integer> items = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+		try {
+			jpaWork.processInParallel(items, 3, 2, partition -> {
+				for (int i = 0; i < partition.size(); i++) {
+					jpaWork.getEntityManager().persist(new SomeEntity());
+				}
+				if (partition.contains(5)) {
+					throw new IllegalStateException("Partition failure");
+				}
+			});
+			fail("Expected PartitionException");
+		} catch (PartitionException e) {
+			assertEquals(Arrays.asList(Arrays.asList(4, 5, 6)), e.getFailedPartitions());
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		// Only the failed partition is rolled back
+		assertEquals(7l, count());
+	}
+
+	private long count() {
+		jpaWork.begin();
+		try {
+			EntityManager em = jpaWork.getEntityManager();
+			return em.createQuery("SELECT COUNT(e.id) FROM SomeEntity e", Long.class).getSingleResult();
+		} finally {
+			jpaWork.end();
+		}
+	}
+
 	/**
 	 * Cleanup the database to start a test
 	 */
@@ -13,10 +13,19 @@
 
 package com.github.x3333.dagger.jpa.tester;
 
+import java.sql.Connection;
+import java.util.List;
+import java.util.function.Consumer;
+
 import javax.inject.Provider;
 import javax.persistence.EntityManager;
 
+import com.github.x3333.dagger.jpa.FetchPlan;
+import com.github.x3333.dagger.jpa.Isolation;
+import com.github.x3333.dagger.jpa.JpaWork;
 import com.github.x3333.dagger.jpa.Transactional;
+import com.github.x3333.dagger.jpa.TransactionStatus;
+import com.github.x3333.dagger.jpa.tester.domain.OtherEntity;
 import com.github.x3333.dagger.jpa.tester.domain.SomeEntity;
 
 public abstract class TransactionalClass implements TransactionalInterface {
@@ -28,9 +37,11 @@ public abstract class TransactionalClass implements TransactionalInterface {
 	}
 
 	private Provider<EntityManager> em;
+	private JpaWork work;
 
-	public TransactionalClass(Provider<EntityManager> em) {
+	public TransactionalClass(Provider<EntityManager> em, JpaWork work) {
 		this.em = em;
+		this.work = work;
 	}
 	
 	@Override
@@ -56,4 +67,89 @@ public abstract class TransactionalClass implements TransactionalInterface {
 		throw new MyException();
 	}
 
+	@Override
+	@Transactional(rollbackOn = MyException.class)
+	public void transactionalCallback(Consumer<TransactionStatus> callback, boolean fail) throws MyException {
+		work.afterCompletion(callback);
+		transactionalCommit();
+		if (fail) {
+			throw new MyException();
+		}
+	}
+
+	@Override
+	@Transactional
+	public void transactionalCallbackCallsTransactional(List<Boolean> workBegun) {
+		for (int i = 0; i < 2; i++) {
+			work.afterCommit(() -> {
+				workBegun.add(work.hasBegun());
+				transactionalCommit();
+			});
+		}
+	}
+
+	@Override
+	@Transactional
+	public int transactionalCommitWithOther() {
+		OtherEntity other = new OtherEntity();
+		em.get().persist(other);
+		SomeEntity entity = new SomeEntity();
+		entity.setOther(other);
+		em.get().persist(entity);
+		em.get().flush();
+		return entity.getId();
+	}
+
+	@Override
+	@Transactional(fetchPlan = @FetchPlan(entity = SomeEntity.class, attributes = "other"))
+	public SomeEntity transactionalFind(int id) {
+		return em.get().find(SomeEntity.class, id);
+	}
+
+	@Override
+	@Transactional(fetchPlan = @FetchPlan(entity = SomeEntity.class, attributes = "other"))
+	public List<SomeEntity> transactionalQuery() {
+		return em.get().createQuery("FROM SomeEntity", SomeEntity.class).getResultList();
+	}
+
+	@Override
+	@Transactional(fetchPlan = @FetchPlan(entity = SomeEntity.class, attributes = "other"))
+	public List<SomeEntity> transactionalNamedNativeQuery() {
+		return em.get().createNamedQuery("SomeEntity.native", SomeEntity.class).getResultList();
+	}
+
+	@Override
+	@Transactional(isolation = Isolation.SERIALIZABLE, lockTimeoutMillis = 500)
+	public int transactionalIsolation() {
+		return work.doWork(false, Connection::getTransactionIsolation);
+	}
+
+	@Override
+	@Transactional
+	public int transactionalDefaultIsolation() {
+		return work.doWork(false, Connection::getTransactionIsolation);
+	}
+
+	@Override
+	@Transactional(maxStatements = 1)
+	public void transactionalDelete(int id) {
+		em.get().remove(em.get().find(SomeEntity.class, id));
+	}
+
+	@Override
+	@Transactional(maxStatements = 2)
+	public void transactionalOverBudget() {
+		for (int i = 0; i < 3; i++) {
+			transactionalCommit();
+		}
+	}
+
+	@Override
+	@Transactional
+	public void transactionalRepeatedQuery(int times) {
+		for (int i = 0; i < times; i++) {
+			em.get().createQuery("SELECT COUNT(e.id) FROM SomeEntity e", Long.class).getSingleResult();
+		}
+	}
+
 }
@@ -13,7 +13,12 @@
 
 package com.github.x3333.dagger.jpa.tester;
 
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.github.x3333.dagger.jpa.TransactionStatus;
 import com.github.x3333.dagger.jpa.tester.TransactionalClass.MyException;
+import com.github.x3333.dagger.jpa.tester.domain.SomeEntity;
 
 public interface TransactionalInterface {
 	
@@ -23,4 +28,26 @@ public interface TransactionalInterface {
 
 	void transactionalExceptionRollback() throws MyException;
 
+	void transactionalCallback(Consumer<TransactionStatus> callback, boolean fail) throws MyException;
+
+	void transactionalCallbackCallsTransactional(List<Boolean> workBegun);
+
+	int transactionalCommitWithOther();
+
+	SomeEntity transactionalFind(int id);
+
+	List<SomeEntity> transactionalQuery();
+
+	List<SomeEntity> transactionalNamedNativeQuery();
+
+	int transactionalIsolation();
+
+	int transactionalDefaultIsolation();
+
+	void transactionalOverBudget();
+
+	void transactionalDelete(int id);
+
+	void transactionalRepeatedQuery(int times);
+
 }
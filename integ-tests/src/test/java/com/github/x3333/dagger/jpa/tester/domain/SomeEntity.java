@@ -2,16 +2,21 @@ package com.github.x3333.dagger.jpa.tester.domain;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedNativeQuery;
 
 import com.google.common.base.MoreObjects;
 
 @Entity
+@NamedNativeQuery(name = "SomeEntity.native", query = "SELECT * FROM SomeEntity", resultClass = SomeEntity.class)
 public class SomeEntity {
 
 	private Integer id;
+	private OtherEntity other;
 
 	//
 
@@ -26,6 +31,15 @@ public class SomeEntity {
 		this.id = id;
 	}
 
+	@ManyToOne(fetch = FetchType.LAZY)
+	public OtherEntity getOther() {
+		return this.other;
+	}
+
+	public void setOther(final OtherEntity other) {
+		this.other = other;
+	}
+
 	@Override
 	public String toString() {
 		return MoreObjects.toStringHelper(this).add("id", id).toString();